@@ -0,0 +1,16 @@
+package com.hmdp.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+
+/**
+ * 事务代理的顺序. 默认是最低优先级, 这里提前一位,
+ * 让 CacheInvalidateAspect 排在事务内层, @Cached 的 CacheAspect 仍在最外层
+ */
+@Configuration
+@EnableTransactionManagement(proxyTargetClass = true, order = TransactionConfig.TRANSACTION_ORDER)
+public class TransactionConfig {
+
+    public static final int TRANSACTION_ORDER = Ordered.LOWEST_PRECEDENCE - 1;
+}
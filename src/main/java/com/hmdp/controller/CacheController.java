@@ -0,0 +1,67 @@
+package com.hmdp.controller;
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IShopService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheMetrics;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * CacheController 缓存运行状态
+**/
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private IShopService shopService;
+
+    /**
+     * 当前实例检测到的热点 key
+     * @return 热点 key 及访问次数估计, 按次数降序
+     */
+    @GetMapping("/hot-keys")
+    public Result queryHotKeys() {
+        return Result.ok(cacheClient.hotKeys());
+    }
+
+    /**
+     * 当前实例按 key 前缀汇总的缓存统计, 延迟分位数与重建线程池排队数见 /actuator/metrics
+     * @return 每个前缀的命中率、空值命中率、过期数据返回次数、重建耗时与锁竞争次数
+     */
+    @GetMapping("/stats")
+    public Result queryStats() {
+        return Result.ok(cacheMetrics.snapshot());
+    }
+
+    /**
+     * 预热店铺缓存, 活动开始前调用
+     * @param restart true 从头开始; false 从上次中断的位置继续, 上次已完成则不执行
+     * @return 无
+     */
+    @PostMapping("/warm-up/shop")
+    public Result warmUpShop(@RequestParam(value = "restart", defaultValue = "true") Boolean restart) {
+        return shopService.warmUpCache(restart);
+    }
+
+    /**
+     * 店铺缓存预热进度
+     * @return 状态、游标、已写入数量与总数
+     */
+    @GetMapping("/warm-up/shop")
+    public Result queryWarmUpShop() {
+        return shopService.queryWarmUpProgress();
+    }
+}
@@ -1,12 +1,10 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopFilterDTO;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -53,10 +51,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库, 返回店铺id
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -74,6 +70,7 @@ public class ShopController {
      * 根据商铺类型分页查询商铺信息
      * @param typeId 商铺类型
      * @param current 页码
+     * @param filter 均价、评分、是否营业中的条件与排序方式, 如 minPrice=50&maxPrice=200&minScore=40&openNow=true&sortBy=score
      * @return 商铺列表
      */
     @GetMapping("/of/type")
@@ -81,9 +78,26 @@ public class ShopController {
             @RequestParam("typeId") Integer typeId,
             @RequestParam(value = "current", defaultValue = "1") Integer current, 
             @RequestParam(value = "x", required = false) Double x, 
-            @RequestParam(value = "y", required = false) Double y
+            @RequestParam(value = "y", required = false) Double y,
+            ShopFilterDTO filter
+    ) {
+        return shopService.queryShopByType(typeId, current, x, y, filter);
+    }
+
+    /**
+     * 根据商铺类型与坐标按距离滚动查询附近商铺
+     * @param typeId 商铺类型
+     * @param cursor 上一次查询返回的游标, 第一页为空
+     * @return 商铺列表与下一页的游标
+     */
+    @GetMapping("/of/type/scroll")
+    public Result queryShopByTypeCursor(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam("x") Double x,
+            @RequestParam("y") Double y,
+            @RequestParam(value = "cursor", required = false) String cursor
     ) {
-        return shopService.queryShopByType(typeId, current, x, y);
+        return shopService.queryShopByTypeCursor(typeId, x, y, cursor);
     }
 
     /**
@@ -97,11 +111,20 @@ public class ShopController {
             @RequestParam(value = "name", required = false) String name,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryShopByName(name, current);
+    }
+
+    /**
+     * 根据商铺名称关键字滚动查询商铺信息, 按匹配程度与评分排序
+     * @param name 商铺名称关键字
+     * @param cursor 上一次查询返回的游标, 第一页为空
+     * @return 商铺列表与下一页的游标
+     */
+    @GetMapping("/of/name/scroll")
+    public Result queryShopByNameCursor(
+            @RequestParam("name") String name,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        return shopService.queryShopByNameCursor(name, cursor);
     }
 }
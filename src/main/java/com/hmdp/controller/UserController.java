@@ -9,13 +9,11 @@ import org.springframework.web.bind.annotation.*;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
-import com.hmdp.entity.User;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
 import com.hmdp.utils.UserHolder;
 
-import cn.hutool.core.bean.BeanUtil;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -89,11 +87,10 @@ public class    UserController {
     @GetMapping("/{id}")
     public Result queryUserById(@PathVariable("id") Long userId){
         // 查询详情
-        User user = userService.getById(userId);
-        if (user == null) {
+        UserDTO userDTO = userService.queryUserDTO(userId);
+        if (userDTO == null) {
             return Result.ok();
         }
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
         // 返回
         return Result.ok(userDTO);
     }
@@ -3,6 +3,7 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -30,4 +31,13 @@ public class VoucherOrderController {
         
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 查询本实例订单消费者的分区、吞吐与延迟
+     * @return 消费者指标列表
+     */
+    @GetMapping("consumers")
+    public Result queryConsumerStats() {
+        return voucherOrderService.queryConsumerStats();
+    }
 }
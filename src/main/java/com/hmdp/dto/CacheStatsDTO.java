@@ -0,0 +1,84 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * CacheStatsDTO 一个 key 前缀的缓存统计, 计数从实例启动开始累计
+**/
+@Data
+@NoArgsConstructor
+public class CacheStatsDTO {
+    /**
+     * 缓存 key 前缀
+     */
+    private String prefix;
+    /**
+     * 本地缓存命中次数
+     */
+    private long localHits;
+    /**
+     * Redis 命中次数
+     */
+    private long redisHits;
+    /**
+     * 命中空值缓存的次数
+     */
+    private long nullHits;
+    /**
+     * 未命中次数
+     */
+    private long misses;
+    /**
+     * 逻辑过期后返回旧数据的次数
+     */
+    private long staleServed;
+    /**
+     * 被布隆过滤器拦截的次数
+     */
+    private long bloomRejects;
+    /**
+     * 返回缓存数据 (包括旧数据) 的比例, 不含空值与布隆过滤器拦截
+     */
+    private double hitRatio;
+    /**
+     * 命中空值缓存的比例
+     */
+    private double nullHitRatio;
+    /**
+     * 重建次数
+     */
+    private long rebuilds;
+    /**
+     * 重建平均耗时 (毫秒)
+     */
+    private double rebuildMeanMillis;
+    /**
+     * 最近一段时间的重建最大耗时 (毫秒)
+     */
+    private double rebuildMaxMillis;
+    /**
+     * 获取重建互斥锁成功次数
+     */
+    private long lockAcquired;
+    /**
+     * 获取重建互斥锁失败次数, 代表其他请求或实例正在重建
+     */
+    private long lockContended;
+    /**
+     * 同一个 key 已在排队或执行中, 没有重复提交的异步重建次数
+     */
+    private long rebuildDeduped;
+    /**
+     * 重建队列已满被拒绝的次数, 期间继续返回旧数据
+     */
+    private long rebuildRejected;
+    /**
+     * 异步重建执行异常的次数
+     */
+    private long rebuildFailed;
+
+    public CacheStatsDTO(String prefix) {
+        this.prefix = prefix;
+    }
+}
@@ -0,0 +1,38 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * CacheWarmUpDTO 缓存预热进度, 保存在 Redis 中, 任意实例都可以查询
+**/
+@Data
+public class CacheWarmUpDTO {
+    /**
+     * 预热任务名称
+     */
+    private String name;
+    /**
+     * IDLE 未运行过; RUNNING 运行中或运行中的实例已宕机 (重新启动后从游标继续); DONE 完成; FAILED 失败
+     */
+    private String status;
+    /**
+     * 已写入缓存的最大 id, 之前的数据都已写入, 重新启动后从这里继续
+     */
+    private Long lastId;
+    /**
+     * 已写入缓存的数量
+     */
+    private Long written;
+    /**
+     * 开始时数据库中的总数, 用于估算进度
+     */
+    private Long total;
+    /**
+     * 开始时间 (epoch ms)
+     */
+    private Long startedAt;
+    /**
+     * 结束时间 (epoch ms)
+     */
+    private Long finishedAt;
+}
@@ -0,0 +1,14 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * CursorResult 游标分页结果, 下一页请求带上 cursor, cursor 为空代表没有下一页
+**/
+@Data
+public class CursorResult {
+    private List<?> list;
+    private String cursor;
+}
@@ -0,0 +1,22 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * HotKeyDTO 热点 key 及其访问次数估计
+**/
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HotKeyDTO {
+    /**
+     * 缓存 key
+     */
+    private String key;
+    /**
+     * 衰减后的访问次数估计, 约等于最近两个统计窗口的访问次数
+     */
+    private Long hits;
+}
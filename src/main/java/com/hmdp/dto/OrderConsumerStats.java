@@ -0,0 +1,36 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * OrderConsumerStats 秒杀订单消费者的运行指标
+**/
+@Data
+public class OrderConsumerStats {
+    /**
+     * 消费者名称, 全局唯一
+     */
+    private String consumer;
+    /**
+     * 当前持有的分区
+     */
+    private List<Integer> partitions;
+    /**
+     * 累计处理的订单数
+     */
+    private Long processed;
+    /**
+     * 最近一个统计窗口的吞吐, 单/秒
+     */
+    private Long throughput;
+    /**
+     * 最近一批订单从进入队列到处理完成的延迟, 毫秒
+     */
+    private Long lagMillis;
+    /**
+     * 已投递给该消费者但尚未 ACK 的消息数
+     */
+    private Long pending;
+}
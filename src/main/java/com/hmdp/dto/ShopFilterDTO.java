@@ -0,0 +1,44 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * ShopFilterDTO 附近店铺的属性条件与排序方式, 未传的条件不生效
+**/
+@Data
+public class ShopFilterDTO {
+
+    /**
+     * 按评分排序
+     */
+    public static final String SORT_BY_SCORE = "score";
+
+    /**
+     * 最低均价
+     */
+    private Long minPrice;
+
+    /**
+     * 最高均价
+     */
+    private Long maxPrice;
+
+    /**
+     * 最低评分, 乘 10, 与 Shop.score 相同
+     */
+    private Integer minScore;
+
+    /**
+     * 只查询当前正在营业的店铺
+     */
+    private Boolean openNow;
+
+    /**
+     * 排序方式: distance (默认, 距离升序) 或 score (评分降序, 距离升序)
+     */
+    private String sortBy;
+
+    public boolean isSortByScore() {
+        return SORT_BY_SCORE.equals(sortBy);
+    }
+}
@@ -0,0 +1,34 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * ShopGeoCellDTO 一个网格内附近店铺查询的候选集合: 以网格中心为圆心查询 Redis GEO 的结果.
+ * 网格内任意查询点离中心不超过 reach - 该点到中心的距离的店铺都在候选集合中, 按查询点重新计算距离后即可精确排序
+**/
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ShopGeoCellDTO {
+    /**
+     * 离网格中心 reach 米以内的店铺全部在候选集合中
+     */
+    private Double reach;
+    /**
+     * 按离网格中心的距离升序
+     */
+    private List<Candidate> candidates;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Candidate {
+        private Long id;
+        private Double x;
+        private Double y;
+    }
+}
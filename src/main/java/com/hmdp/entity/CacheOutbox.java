@@ -0,0 +1,59 @@
+package com.hmdp.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * CacheOutbox 缓存失效事件, 与业务数据在同一个事务中写入
+**/
+@Data
+@EqualsAndHashCode(callSuper = false)
+@Accessors(chain = true)
+@TableName("tb_cache_outbox")
+public class CacheOutbox implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 主键
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 缓存 key 前缀
+     */
+    private String keyPrefix;
+
+    /**
+     * 业务 id, 与前缀拼接为缓存 key
+     */
+    private String bizId;
+
+    /**
+     * 0 待删除; 1 已删除一次, 等待延迟双删; 2 重试次数用完
+     */
+    private Integer status;
+
+    /**
+     * 删除失败的重试次数
+     */
+    private Integer retryCount;
+
+    /**
+     * 下次处理时间
+     */
+    private LocalDateTime nextTime;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime createTime;
+}
@@ -93,6 +93,16 @@ public class Shop implements Serializable {
      */
     private String openHours;
 
+    /**
+     * 开始营业的分钟数，由营业时间解析，-1 代表未知
+     */
+    private Integer openMinute;
+
+    /**
+     * 结束营业的分钟数，早于开始代表营业到次日，-1 代表未知
+     */
+    private Integer closeMinute;
+
     /**
      * 创建时间
      */
@@ -0,0 +1,11 @@
+package com.hmdp.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.entity.CacheOutbox;
+
+/**
+ * CacheOutboxMapper 缓存失效事件表的 Mapper
+**/
+public interface CacheOutboxMapper extends BaseMapper<CacheOutbox> {
+
+}
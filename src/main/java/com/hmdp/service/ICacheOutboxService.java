@@ -0,0 +1,15 @@
+package com.hmdp.service;
+
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.entity.CacheOutbox;
+
+/**
+ * ICacheOutboxService 通过事务发件箱删除缓存
+**/
+public interface ICacheOutboxService extends IService<CacheOutbox> {
+
+    /**
+     * 在当前事务中记录缓存失效事件, 事务提交后删除缓存, 并延迟再删除一次
+     */
+    void evictAfterCommit(String keyPrefix, Object id);
+}
@@ -2,6 +2,7 @@ package com.hmdp.service;
 
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopFilterDTO;
 import com.hmdp.entity.Shop;
 
 /**
@@ -17,7 +18,19 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    Result saveShop(Shop shop);
+
     Result update(Shop shop);
 
-    Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+    Result queryShopByType(Integer typeId, Integer current, Double x, Double y, ShopFilterDTO filter);
+
+    Result queryShopByTypeCursor(Integer typeId, Double x, Double y, String cursor);
+
+    Result queryShopByName(String name, Integer current);
+
+    Result queryShopByNameCursor(String name, String cursor);
+
+    Result warmUpCache(boolean restart);
+
+    Result queryWarmUpProgress();
 }
@@ -4,8 +4,14 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 
+import java.util.List;
+
 public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result seckillVoucher(Long voucherId);
 
     void createVoucherOrder(VoucherOrder voucherOrder);
+
+    void createVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    Result queryConsumerStats();
 }
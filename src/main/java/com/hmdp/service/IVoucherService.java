@@ -1,9 +1,10 @@
 package com.hmdp.service;
 
 import com.baomidou.mybatisplus.extension.service.IService;
-import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -14,7 +15,9 @@ import com.hmdp.entity.Voucher;
  */
 public interface IVoucherService extends IService<Voucher> {
 
-    Result queryVoucherOfShop(Long shopId);
+    List<Voucher> queryVoucherOfShop(Long shopId);
+
+    void addVoucher(Voucher voucher);
 
     void addSeckillVoucher(Voucher voucher);
 }
@@ -6,6 +6,7 @@ import static com.hmdp.utils.RedisConstants.FEED_KEY;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -22,7 +23,6 @@ import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.entity.Follow;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IFollowService;
@@ -30,7 +30,6 @@ import com.hmdp.service.IUserService;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 
 /**
@@ -61,11 +60,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog -> {
-            this.queryBlogUser(blog);
-            this.isBlogLiked(blog);
-        });
+        // 批量查询用户
+        queryBlogUsers(records);
+        records.forEach(this::isBlogLiked);
         return Result.ok(records);
     }
 
@@ -78,7 +75,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         }
 
         // 2. 查询 blog 有关的用户
-        queryBlogUser(blog);
+        queryBlogUsers(Collections.singletonList(blog));
         // 3. 查询 blog 是否被点赞
         isBlogLiked(blog);
         return Result.ok(blog);
@@ -139,14 +136,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
         // 2. 解析出其中的用户 id
         List<Long> ids = top5.stream().map(Long::valueOf).collect(Collectors.toList());
-        String idStr = StrUtil.join(",", ids);
 
-        // 3. 根据用户 id 查询用户      WHERE id IN ( 5 , 1 ) ORDER BY FIELD(id, 5, 1)
-        List<UserDTO> userDTOS = userService.query()
-                .in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+        // 3. 根据用户 id 批量查询用户, 结果与 ids 的顺序一致
+        List<UserDTO> userDTOS = userService.queryUserDTOs(ids);
 
         // 4. 返回
         return Result.ok(userDTOS);
@@ -210,9 +202,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 .in("id", ids)
                 .last("ORDER BY FIELD(id," + idStr + ")").list();
 
+        // 5.1 批量查询 blog 有关的用户
+        queryBlogUsers(blogs);
         for (Blog blog : blogs) {
-            // 5.1 查询 blog 有关的用户
-            queryBlogUser(blog);
             // 5.2 查询 blog 是否被点赞
             isBlogLiked(blog);
         }
@@ -225,10 +217,16 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         return Result.ok(r);
     }
 
-    private void queryBlogUser(Blog blog) {
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+    private void queryBlogUsers(List<Blog> blogs) {
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).distinct().collect(Collectors.toList());
+        Map<Long, UserDTO> users = userService.queryUserDTOs(userIds).stream()
+                .collect(Collectors.toMap(UserDTO::getId, user -> user));
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
     }
 }
@@ -0,0 +1,170 @@
+package com.hmdp.service.impl;
+
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.entity.CacheOutbox;
+import com.hmdp.mapper.CacheOutboxMapper;
+import com.hmdp.service.ICacheOutboxService;
+import com.hmdp.utils.CacheClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CacheOutboxServiceImpl 事务发件箱: 缓存失效事件与业务数据在同一个事务中写入 tb_cache_outbox,
+ * 事务提交后删除缓存, 间隔 delay 再删除一次, 清除提交前后并发读请求写回的旧数据.
+ * 事件删除成功后才从表中移除, 失败按指数退避重试; 提交后的立即处理丢失 (如宕机) 时由定时轮询补偿.
+ * 删除缓存是幂等的, 多个实例重复处理同一个事件没有影响
+**/
+@Slf4j
+@Service
+public class CacheOutboxServiceImpl extends ServiceImpl<CacheOutboxMapper, CacheOutbox> implements ICacheOutboxService {
+
+    private static final int PENDING = 0;
+    private static final int DELAYED = 1;
+    private static final int FAILED = 2;
+
+    /**
+     * 重试间隔上限 (毫秒)
+     */
+    private static final long MAX_BACKOFF_MILLIS = 60_000L;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    /**
+     * 第一次删除后到第二次删除的间隔 (毫秒), 应大于一次读请求查询数据库并写回缓存的耗时
+     */
+    @Value("${hmdp.cache.outbox.delay:1000}")
+    private long delayMillis;
+
+    /**
+     * 轮询到期事件的间隔 (毫秒)
+     */
+    @Value("${hmdp.cache.outbox.poll-interval:1000}")
+    private long pollIntervalMillis;
+
+    /**
+     * 每次轮询处理的最大事件数
+     */
+    @Value("${hmdp.cache.outbox.batch-size:100}")
+    private int batchSize;
+
+    /**
+     * 删除失败的最大重试次数, 用完后保留在表中等待人工处理
+     */
+    @Value("${hmdp.cache.outbox.max-retries:10}")
+    private int maxRetries;
+
+    private ScheduledExecutorService relayExecutor;
+
+    @PostConstruct
+    private void init() {
+        relayExecutor = Executors.newSingleThreadScheduledExecutor();
+        relayExecutor.scheduleWithFixedDelay(this::poll, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        // 未处理的事件仍在表中, 下次启动或其他实例会继续处理
+        relayExecutor.shutdownNow();
+    }
+
+    @Override
+    public void evictAfterCommit(String keyPrefix, Object id) {
+        // 1. 在当前事务中写入事件
+        CacheOutbox event = new CacheOutbox()
+                .setKeyPrefix(keyPrefix)
+                .setBizId(id.toString())
+                .setStatus(PENDING)
+                .setRetryCount(0)
+                .setNextTime(LocalDateTime.now());
+        save(event);
+        // 2. 事务提交后立即处理, 不在事务中时直接处理
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            relayExecutor.execute(() -> process(event));
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                relayExecutor.execute(() -> process(event));
+            }
+        });
+    }
+
+    /**
+     * 处理到期的事件
+     */
+    private void poll() {
+        try {
+            List<CacheOutbox> events = query()
+                    .in("status", PENDING, DELAYED)
+                    .le("next_time", LocalDateTime.now())
+                    .orderByAsc("id")
+                    .last("LIMIT " + batchSize)
+                    .list();
+            for (CacheOutbox event : events) {
+                process(event);
+            }
+        } catch (Exception e) {
+            log.error("轮询缓存失效事件异常", e);
+        }
+    }
+
+    private void process(CacheOutbox event) {
+        try {
+            // 1. 删除缓存, 并通知所有实例删除本地缓存
+            cacheClient.evict(event.getKeyPrefix(), event.getBizId());
+            if (event.getStatus() == PENDING) {
+                // 2. 第一次删除完成, 等待延迟双删; 其他实例已经处理过时不再更新
+                boolean updated = update()
+                        .set("status", DELAYED)
+                        .set("next_time", LocalDateTime.now().plusNanos(TimeUnit.MILLISECONDS.toNanos(delayMillis)))
+                        .eq("id", event.getId())
+                        .eq("status", PENDING)
+                        .update();
+                if (updated) {
+                    event.setStatus(DELAYED);
+                    relayExecutor.schedule(() -> process(event), delayMillis, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+            // 3. 第二次删除完成, 移除事件
+            removeById(event.getId());
+        } catch (Exception e) {
+            retry(event, e);
+        }
+    }
+
+    private void retry(CacheOutbox event, Exception e) {
+        int retryCount = event.getRetryCount() + 1;
+        try {
+            if (retryCount >= maxRetries) {
+                log.error("删除缓存失败, 重试次数已用完: {}{}", event.getKeyPrefix(), event.getBizId(), e);
+                update().set("status", FAILED).set("retry_count", retryCount).eq("id", event.getId()).update();
+                return;
+            }
+            log.warn("删除缓存失败, 第 {} 次重试: {}{}", retryCount, event.getKeyPrefix(), event.getBizId(), e);
+            // 指数退避, 由轮询重新处理
+            long backoff = Math.min(delayMillis << Math.min(retryCount, 16), MAX_BACKOFF_MILLIS);
+            update().set("retry_count", retryCount)
+                    .set("next_time", LocalDateTime.now().plusNanos(TimeUnit.MILLISECONDS.toNanos(backoff)))
+                    .eq("id", event.getId())
+                    .update();
+        } catch (Exception ex) {
+            // 数据库也不可用, 事件保持原状态, 由轮询重新处理
+            log.error("更新缓存失效事件失败: {}", event.getId(), ex);
+        }
+    }
+}
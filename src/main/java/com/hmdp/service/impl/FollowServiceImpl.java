@@ -1,6 +1,5 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.service.IUserService;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -89,11 +88,8 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
         }
         // 3. 解析 id 集合
         List<Long> ids = intersect.stream().map(Long::valueOf).collect(Collectors.toList());
-        // 4. 查询用户
-        List<UserDTO> users = userService.listByIds(ids)
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+        // 4. 批量查询用户
+        List<UserDTO> users = userService.queryUserDTOs(ids);
         return Result.ok(users);
     }
 }
@@ -1,33 +1,51 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopFilterDTO;
+import com.hmdp.dto.ShopGeoCellDTO;
 import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopMapper;
+import com.hmdp.service.ICacheOutboxService;
 import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
 import com.hmdp.utils.CacheClient;
-import com.hmdp.utils.RedisData;
+import com.hmdp.utils.CacheWarmer;
+import com.hmdp.utils.DistanceCursor;
+import com.hmdp.utils.GeoGridIndex;
+import com.hmdp.utils.LocalGeoIndex;
+import com.hmdp.utils.LocalNameIndex;
+import com.hmdp.utils.NgramIndex;
+import com.hmdp.utils.OpenHours;
+import com.hmdp.utils.RedisBloomFilter;
+import com.hmdp.utils.RedisGeoIndex;
 import com.hmdp.utils.SystemConstants;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
 import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.domain.geo.GeoReference;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -48,6 +66,286 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private ICacheOutboxService cacheOutboxService;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    /**
+     * 店铺布隆过滤器的预期店铺数量, 超过后自动按两倍容量重建
+     */
+    @Value("${hmdp.bloom.shop.expected-insertions:100000}")
+    private long bloomExpectedInsertions;
+
+    /**
+     * 店铺布隆过滤器的期望误判率
+     */
+    @Value("${hmdp.bloom.shop.fpp:0.01}")
+    private double bloomFpp;
+
+    private RedisBloomFilter shopBloomFilter;
+
+    /**
+     * 启动时是否预热店铺缓存, 上次预热已完成则跳过, 中断过则从游标继续
+     */
+    @Value("${hmdp.cache.warm-up.on-startup:true}")
+    private boolean warmUpOnStartup;
+
+    /**
+     * 预热时每页读取的店铺数量, 也是一次 pipeline 写入的数量
+     */
+    @Value("${hmdp.cache.warm-up.batch-size:500}")
+    private int warmUpBatchSize;
+
+    /**
+     * 预热时并行写入 Redis 的线程数
+     */
+    @Value("${hmdp.cache.warm-up.parallelism:4}")
+    private int warmUpParallelism;
+
+    /**
+     * 预热时每秒最多从数据库读取的店铺数量
+     */
+    @Value("${hmdp.cache.warm-up.rows-per-second:5000}")
+    private double warmUpRowsPerSecond;
+
+    private CacheWarmer<Shop> shopCacheWarmer;
+
+    /**
+     * 附近店铺查询是否使用进程内网格索引
+     */
+    @Value("${hmdp.shop.geo.local-index:true}")
+    private boolean geoLocalIndex;
+
+    /**
+     * 网格边长 (度)
+     */
+    @Value("${hmdp.shop.geo.cell-size:0.01}")
+    private double geoCellSize;
+
+    /**
+     * 网格索引全量重建间隔 (分钟)
+     */
+    @Value("${hmdp.shop.geo.rebuild-interval:30}")
+    private long geoRebuildInterval;
+
+    private LocalGeoIndex shopGeoIndex;
+
+    /**
+     * 对比数据库与 Redis GEO 集合的间隔 (分钟)
+     */
+    @Value("${hmdp.shop.geo.reconcile-interval:10}")
+    private long geoReconcileInterval;
+
+    private RedisGeoIndex shopRedisGeoIndex;
+
+    /**
+     * 名称搜索是否使用进程内 n-gram 倒排索引
+     */
+    @Value("${hmdp.shop.name.local-index:true}")
+    private boolean nameLocalIndex;
+
+    /**
+     * 名称索引全量重建间隔 (分钟)
+     */
+    @Value("${hmdp.shop.name.rebuild-interval:30}")
+    private long nameRebuildInterval;
+
+    private LocalNameIndex shopNameIndex;
+
+    @PostConstruct
+    private void init() {
+        // 店铺详情是热点数据, 开启本地缓存
+        cacheClient.registerLocalCache(CACHE_SHOP_KEY, CACHE_SHOP_LOCAL_SIZE, CACHE_SHOP_LOCAL_TTL, TimeUnit.SECONDS);
+        // 按店铺 id 构建布隆过滤器, 拦截不存在的店铺 id
+        shopBloomFilter = new RedisBloomFilter(BLOOM_SHOP_KEY, bloomExpectedInsertions, bloomFpp, this::queryIdsAfter,
+                stringRedisTemplate, redissonClient, redisMessageListenerContainer);
+        shopBloomFilter.start();
+        cacheClient.registerBloomFilter(CACHE_SHOP_KEY, shopBloomFilter);
+        // 店铺详情使用逻辑过期缓存, 没有预热的店铺查询结果为空
+        shopCacheWarmer = new CacheWarmer<>("shop", CACHE_SHOP_KEY, this::queryShopsAfter, Shop::getId,
+                () -> (long) count(), cacheClient, stringRedisTemplate, redissonClient,
+                warmUpBatchSize, warmUpParallelism, warmUpRowsPerSecond, CACHE_SHOP_TTL, TimeUnit.SECONDS);
+        // 按店铺类型分组的进程内网格索引, 附近店铺查询不再访问 Redis GEO
+        if (geoLocalIndex) {
+            shopGeoIndex = new LocalGeoIndex(SHOP_GEO_LOCAL_INDEX, geoCellSize, geoRebuildInterval,
+                    this::queryGeoPointsAfter, this::queryGeoPoint, stringRedisTemplate, redisMessageListenerContainer);
+            shopGeoIndex.start();
+        }
+        // 店铺写入时同步 Redis GEO 集合, 并定期与数据库对比
+        shopRedisGeoIndex = new RedisGeoIndex(SHOP_GEO_KEY, geoReconcileInterval, this::queryGeoPointsAfter,
+                this::queryGeoPoints, this::queryShopTypeIds, stringRedisTemplate, redissonClient);
+        shopRedisGeoIndex.start();
+        // 店铺名称与商圈的 n-gram 倒排索引, 名称搜索不再 LIKE 扫描全表
+        if (nameLocalIndex) {
+            shopNameIndex = new LocalNameIndex(SHOP_NAME_LOCAL_INDEX, nameRebuildInterval,
+                    this::queryNameEntriesAfter, this::queryNameEntry, stringRedisTemplate, redisMessageListenerContainer);
+            shopNameIndex.start();
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpOnStartup() {
+        if (warmUpOnStartup) {
+            shopCacheWarmer.start(false);
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        shopBloomFilter.stop();
+        shopCacheWarmer.stop();
+        if (shopGeoIndex != null) {
+            shopGeoIndex.stop();
+        }
+        shopRedisGeoIndex.stop();
+        if (shopNameIndex != null) {
+            shopNameIndex.stop();
+        }
+    }
+
+    /**
+     * 按 id 升序查询大于 lastId 的店铺 id
+     */
+    private List<Long> queryIdsAfter(Long lastId, Integer limit) {
+        return query().select("id").gt("id", lastId).orderByAsc("id").last("LIMIT " + limit).list()
+                .stream().map(Shop::getId).collect(Collectors.toList());
+    }
+
+    /**
+     * 按 id 升序查询大于 lastId 的店铺
+     */
+    private List<Shop> queryShopsAfter(Long lastId, Integer limit) {
+        return query().gt("id", lastId).orderByAsc("id").last("LIMIT " + limit).list();
+    }
+
+    /**
+     * 按 id 升序查询大于 lastId 的店铺坐标与筛选用的均价、评分、营业时间
+     */
+    private List<GeoGridIndex.GeoPoint> queryGeoPointsAfter(Long lastId, Integer limit) {
+        return query().select("id", "type_id", "x", "y", "avg_price", "score", "open_hours")
+                .gt("id", lastId)
+                .isNotNull("type_id")
+                .isNotNull("x")
+                .isNotNull("y")
+                .orderByAsc("id")
+                .last("LIMIT " + limit)
+                .list()
+                .stream()
+                .map(ShopServiceImpl::toGeoPoint)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 按 id 批量查询店铺坐标与筛选用的属性, 已删除或没有坐标的店铺不在结果中
+     */
+    private List<GeoGridIndex.GeoPoint> queryGeoPoints(List<Long> ids) {
+        return query().select("id", "type_id", "x", "y", "avg_price", "score", "open_hours")
+                .in("id", ids)
+                .isNotNull("type_id")
+                .isNotNull("x")
+                .isNotNull("y")
+                .list()
+                .stream()
+                .map(ShopServiceImpl::toGeoPoint)
+                .collect(Collectors.toList());
+    }
+
+    private GeoGridIndex.GeoPoint queryGeoPoint(Long id) {
+        List<GeoGridIndex.GeoPoint> points = queryGeoPoints(Collections.singletonList(id));
+        return points.isEmpty() ? null : points.get(0);
+    }
+
+    /**
+     * 按 id 升序查询大于 lastId 的店铺名称、商圈与评分
+     */
+    private List<NgramIndex.Entry> queryNameEntriesAfter(Long lastId, Integer limit) {
+        return query().select("id", "name", "area", "score")
+                .gt("id", lastId)
+                .orderByAsc("id")
+                .last("LIMIT " + limit)
+                .list()
+                .stream()
+                .map(ShopServiceImpl::toNameEntry)
+                .collect(Collectors.toList());
+    }
+
+    private NgramIndex.Entry queryNameEntry(Long id) {
+        Shop shop = query().select("id", "name", "area", "score").eq("id", id).one();
+        return shop == null ? null : toNameEntry(shop);
+    }
+
+    private static NgramIndex.Entry toNameEntry(Shop shop) {
+        return new NgramIndex.Entry(shop.getId(), shop.getName(), shop.getArea(),
+                shop.getScore() == null ? 0 : shop.getScore());
+    }
+
+    private List<Long> queryShopTypeIds() {
+        return shopTypeService.query().select("id").list()
+                .stream().map(ShopType::getId).collect(Collectors.toList());
+    }
+
+    private static GeoGridIndex.GeoPoint toGeoPoint(Shop shop) {
+        int[] hours = OpenHours.parse(shop.getOpenHours());
+        return new GeoGridIndex.GeoPoint(shop.getId(), shop.getTypeId(), shop.getX(), shop.getY(),
+                shop.getAvgPrice() == null ? -1 : shop.getAvgPrice(),
+                shop.getScore() == null ? 0 : shop.getScore(), hours[0], hours[1]);
+    }
+
+    /**
+     * 请求中的条件转换为索引的条件, openNow 取当前时间
+     */
+    private static GeoGridIndex.Filter toGeoFilter(ShopFilterDTO filter) {
+        GeoGridIndex.Filter f = new GeoGridIndex.Filter(
+                filter.getMinPrice() == null ? -1 : filter.getMinPrice(),
+                filter.getMaxPrice() == null ? -1 : filter.getMaxPrice(),
+                filter.getMinScore() == null ? -1 : filter.getMinScore(),
+                BooleanUtil.isTrue(filter.getOpenNow()) ? OpenHours.now() : -1);
+        return f.isEmpty() ? GeoGridIndex.Filter.NONE : f;
+    }
+
+    /**
+     * 营业时间解析为分钟数写入 open_minute / close_minute, 没有修改营业时间时不变
+     */
+    private static void fillOpenMinutes(Shop shop) {
+        if (shop.getOpenHours() == null) {
+            return;
+        }
+        int[] hours = OpenHours.parse(shop.getOpenHours());
+        shop.setOpenMinute(hours[0]);
+        shop.setCloseMinute(hours[1]);
+    }
+
+    private static boolean matches(GeoGridIndex.Filter filter, Shop shop) {
+        int[] hours = OpenHours.parse(shop.getOpenHours());
+        return filter.matches(shop.getAvgPrice() == null ? -1 : shop.getAvgPrice(),
+                shop.getScore() == null ? 0 : shop.getScore(), hours[0], hours[1]);
+    }
+
+    private Map<Long, Shop> mapShopsByIds(List<Long> ids) {
+        return listByIds(ids).stream().collect(Collectors.toMap(Shop::getId, shop -> shop));
+    }
+
+    @Override
+    public Result warmUpCache(boolean restart) {
+        if (!shopCacheWarmer.start(restart)) {
+            return Result.fail("店铺缓存正在预热!");
+        }
+        return Result.ok();
+    }
+
+    @Override
+    public Result queryWarmUpProgress() {
+        return Result.ok(shopCacheWarmer.progress());
+    }
+
     @Override
     public Result queryById(Long id) {
         // 缓存穿透
@@ -69,173 +367,45 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
     
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
-
     public Shop queryWithLogicalExpire(Long id) {
-        String key = CACHE_SHOP_KEY + id;
-
-        // 1. 从 redis 查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-
-        // 2. 判断是否存在
-        if (StrUtil.isBlank(shopJson)) {
-            // 3. 不存在, 直接返回
-            return null;
-        }
-        
-        // 4. 命中, 需要先把 json 反序列化为对象
-        RedisData redisData = JSONUtil.toBean(shopJson, RedisData.class);
-        Shop shop = JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
-        LocalDateTime expireTime = redisData.getExpireTime();
-
-        // 5. 判断是否过期
-        if (expireTime.isAfter(LocalDateTime.now())) {
-            // 5.1 未过期, 直接返回店铺信息
-            return shop;
-        }
-        
-        // 5.2 已过期, 需要缓存重建
-        
-        // 6. 缓存重建
-        // 6.1 获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryBlock(lockKey);
-
-        // 6.2 判断是否获取锁成功
-        if (isLock) {
-            // 6.3 成功, 开启独立线程, 实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                // 重建缓存
-                try {
-                    this.saveShop2Redis(id, 20L);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    // 释放锁
-                    unlock(lockKey);
-                }
-            });
-        }
-        
-        // 6.4 返回过期的商铺信息
-        return shop;
+        // 缓存值由 CacheClient 的 codec 编码, 统一通过 CacheClient 读写
+        return cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.SECONDS);
     }
 
     public Shop queryWithMutex(Long id) {
-        String key = CACHE_SHOP_KEY + id;
-
-        // 1. 从 redis 查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-
-        // 2. 判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 3. 存在, 直接返回
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
-        // 判断命中的是否是空值
-        if (shopJson != null) {
-            // 返回一个错误信息
-            return null;
-        }
-        
-        // 4. 实现缓存重建
-        
-        // 4.1 获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        Shop shop = null;
-        try {
-            boolean isLock = tryBlock(lockKey);
-
-            // 4.2 判断是否获取成功
-            if (!isLock) {
-                // 4.3 失败, 则休眠并重试
-                Thread.sleep(50);
-                return queryWithMutex(id);
-            }
-
-            // 4.4 成功, 根据 id 查询数据库
-            shop = getById(id);
-            
-            // 模拟重建延时
-            Thread.sleep(200);
-
-            // 5. 不存在, 返回错误
-            if (shop == null) {
-                // 将空值写入 redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 返回错误信息
-                return null;
-            }
-
-            // 6. 存在, 写入 redis 
-            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            // 7. 释放互斥锁
-            unlock(lockKey);
-        }
-        
-        // 8. 返回
-        return shop;
+        // 并发未命中在本地合并为一次重建, 只有 leader 竞争互斥锁, 等待者不再休眠递归
+        return cacheClient.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
     
     public Shop queryWithPassThrough(Long id) {
-        String key = CACHE_SHOP_KEY + id;
-
-        // 1. 从 redis 查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-
-        // 2. 判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 3. 存在, 直接返回
-            return JSONUtil.toBean(shopJson, Shop.class);
-        }
-        // 判断命中的是否是空值
-        if (shopJson != null) {
-            // 返回一个错误信息
-            return null;
-        }
-
-        // 4. 不存在, 根据 id 查询数据库
-        Shop shop = getById(id);
-
-        // 5. 不存在, 返回错误
-        if (shop == null) {
-            // 将空值写入 redis
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-            // 返回错误信息
-            return null;
-        }
-
-        // 6. 存在, 写入 redis 
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);
-
-        // 7. 返回
-        return shop;
-    }
-    
-    private boolean tryBlock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", LOCK_SHOP_TTL, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+        return cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
     }
     
-    private void unlock(String key) {
-        stringRedisTemplate.delete(key);
-    }
-    
-    public void saveShop2Redis(Long id, Long expireSeconds) throws InterruptedException {
+    public void saveShop2Redis(Long id, Long expireSeconds) {
         // 1. 查询店铺数据
         Shop shop = getById(id);
-        Thread.sleep(200);
         
-        // 2. 封装逻辑过期时间
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
+        // 2. 封装逻辑过期时间, 写入 Redis
+        cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + id, shop, expireSeconds, TimeUnit.SECONDS);
+    }
 
-        // 3. 写入 Redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
+    @Override
+    public Result saveShop(Shop shop) {
+        // 1. 写入数据库, 营业时间解析为分钟数
+        fillOpenMinutes(shop);
+        save(shop);
+        // 2. 加入布隆过滤器
+        shopBloomFilter.put(shop.getId());
+        // 3. 加入本地地理索引
+        if (shopGeoIndex != null) {
+            shopGeoIndex.refresh(shop.getId());
+        }
+        // 4. 加入 Redis GEO 集合与本地名称索引
+        shopRedisGeoIndex.refresh(shop.getId(), null);
+        if (shopNameIndex != null) {
+            shopNameIndex.refresh(shop.getId());
+        }
+        return Result.ok(shop.getId());
     }
 
     @Override
@@ -247,42 +417,87 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             return Result.fail("店铺id不能为空");
         }
 
-        // 1. 更新数据库
+        // 1. 更新数据库, 记录原来的类型, 类型变化时从原来的 GEO 集合删除
+        Shop old = query().select("id", "type_id").eq("id", id).one();
+        fillOpenMinutes(shop);
         updateById(shop);
         
-        // 2. 删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + shop.getId());
+        // 2. 在同一个事务中记录缓存失效事件, 提交后删除缓存并延迟双删
+        cacheOutboxService.evictAfterCommit(CACHE_SHOP_KEY, id);
+
+        // 3. 提交后更新本地地理索引与 Redis GEO 集合
+        if (shopGeoIndex != null) {
+            shopGeoIndex.refresh(id);
+        }
+        shopRedisGeoIndex.refresh(id, old == null ? null : old.getTypeId());
+        if (shopNameIndex != null) {
+            shopNameIndex.refresh(id);
+        }
         
         return Result.ok();
     }
 
     @Override
-    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y, ShopFilterDTO filter) {
+        if (filter == null) {
+            filter = new ShopFilterDTO();
+        }
+        GeoGridIndex.Filter geoFilter = toGeoFilter(filter);
+        boolean byScore = filter.isSortByScore();
         // 1. 判断是否需要根据坐标查询
         if (x == null || y == null) {
             // 不需要坐标查询, 按数据库查询
-            // 根据类型分页查询
+            // 根据类型与均价、评分、营业时间分页查询
+            int openAt = geoFilter.getOpenAt();
             Page<Shop> page = query()
                     .eq("type_id", typeId)
+                    .ge(filter.getMinPrice() != null, "avg_price", filter.getMinPrice())
+                    .le(filter.getMaxPrice() != null, "avg_price", filter.getMaxPrice())
+                    .ge(filter.getMinScore() != null, "score", filter.getMinScore())
+                    // 与 OpenHours.isOpen 相同: 全天营业; 当天营业 open <= now < close; 营业到次日 now >= open 或 now < close
+                    .and(openAt >= 0, w -> w
+                            .nested(n -> n.ge("open_minute", 0).apply("open_minute = close_minute"))
+                            .or(n -> n.apply("open_minute < close_minute")
+                                    .le("open_minute", openAt).gt("close_minute", openAt))
+                            .or(n -> n.apply("open_minute > close_minute").ge("close_minute", 0)
+                                    .and(m -> m.le("open_minute", openAt).or().gt("close_minute", openAt))))
+                    .orderByDesc(byScore, "score")
                     .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
             // 返回数据
             return Result.ok(page.getRecords());
         }
         // 2. 计算分页参数
-        int from = (current - 1) * DEFAULT_BATCH_SIZE;
-        int end = current * DEFAULT_BATCH_SIZE;
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
         
-        // 3. 查询 redis, 按照距离排序, 分页. 结果: shopId, distance
+        // 3. 优先查询本地网格索引, 属性条件与距离在一次遍历中判断; 未构建完成时查询 redis
+        List<GeoGridIndex.GeoHit> hits = shopGeoIndex == null ? null
+                : shopGeoIndex.search(typeId, x, y, SystemConstants.SHOP_GEO_RADIUS, end, geoFilter, byScore);
+        if (hits != null) {
+            if (hits.size() <= from) {
+                return Result.ok(Collections.emptyList());
+            }
+            List<GeoGridIndex.GeoHit> page = hits.subList(from, hits.size());
+            List<Long> ids = page.stream().map(GeoGridIndex.GeoHit::getId).collect(Collectors.toList());
+            Map<Long, Double> distanceMap = page.stream()
+                    .collect(Collectors.toMap(GeoGridIndex.GeoHit::getId, GeoGridIndex.GeoHit::getDistance));
+            return Result.ok(queryShopsWithDistance(ids, distanceMap));
+        }
+        if (geoFilter != GeoGridIndex.Filter.NONE || byScore) {
+            return Result.ok(queryShopByTypeFiltered(typeId, x, y, from, end, geoFilter, byScore));
+        }
+
+        // 4. 查询 redis, 按照距离排序, 分页. 结果: shopId, distance
         String key = SHOP_GEO_KEY + typeId;
         GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo()  // GEOSEARCH BYLONLAT x y BYRADIUS 10 WITHDISTANCE 
                 .search(
                         key,
                         GeoReference.fromCoordinate(x, y),
-                        new Distance(5000),
+                        new Distance(SystemConstants.SHOP_GEO_RADIUS),
                         RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().limit(end)
                 );
         
-        // 4. 解析出 id
+        // 5. 解析出 id
         if (results == null) {
             return Result.ok(Collections.emptyList());
         }
@@ -291,29 +506,260 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             // 没有下一页了
             return Result.ok(Collections.emptyList());
         }
-        // 4.1 截取 from ~ end 的部分
+        // 5.1 截取 from ~ end 的部分
         List<Long> ids = new ArrayList<>(list.size());
-        Map<String, Distance> distanceMap = new HashMap<>(list.size());
+        Map<Long, Double> distanceMap = new HashMap<>(list.size());
         list.stream().skip(from).forEach(result -> {
-            // 4.2 获取店铺 id
-            String shopIdStr = result.getContent().getName();
-            ids.add(Long.valueOf(shopIdStr));
-            // 4.3 获取距离
-            Distance distance = result.getDistance();
-            distanceMap.put(shopIdStr, distance);
+            // 5.2 获取店铺 id
+            Long shopId = Long.valueOf(result.getContent().getName());
+            ids.add(shopId);
+            // 5.3 获取距离
+            distanceMap.put(shopId, result.getDistance().getValue());
         });
 
-        // 5. 根据 id 查询 shop
-        String idStr = StrUtil.join(",", ids);
+        // 6. 返回
+        return Result.ok(queryShopsWithDistance(ids, distanceMap));
+    }
 
-//        System.out.println("idStr: " + idStr);
-        
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
-        for (Shop shop : shops) {
-            shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+    /**
+     * 本地索引不可用时的带条件查询: 从 redis 取半径内最近的一批店铺 (最多 SHOP_GEO_CELL_MAX_CANDIDATES 个),
+     * 加载店铺后过滤、排序再分页. 超出这一批的店铺不会出现在结果中
+     */
+    private List<Shop> queryShopByTypeFiltered(Integer typeId, double x, double y, int from, int end,
+                                               GeoGridIndex.Filter filter, boolean byScore) {
+        // 1. 查询 redis, 按距离升序
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().search(
+                SHOP_GEO_KEY + typeId,
+                GeoReference.fromCoordinate(x, y),
+                new Distance(SystemConstants.SHOP_GEO_RADIUS),
+                RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs()
+                        .includeDistance().sortAscending().limit(SystemConstants.SHOP_GEO_CELL_MAX_CANDIDATES));
+        if (results == null || results.getContent().isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Long> ids = new ArrayList<>(results.getContent().size());
+        Map<Long, Double> distanceMap = new HashMap<>(results.getContent().size());
+        for (GeoResult<RedisGeoCommands.GeoLocation<String>> result : results.getContent()) {
+            Long shopId = Long.valueOf(result.getContent().getName());
+            ids.add(shopId);
+            distanceMap.put(shopId, result.getDistance().getValue());
+        }
+        // 2. 加载店铺, 过滤后按评分或距离排序, 截取 from ~ end 的部分
+        Comparator<Shop> order = Comparator.comparingDouble(Shop::getDistance).thenComparingLong(Shop::getId);
+        if (byScore) {
+            order = Comparator.comparingInt((Shop shop) -> shop.getScore() == null ? 0 : shop.getScore())
+                    .reversed().thenComparing(order);
         }
+        return queryShopsWithDistance(ids, distanceMap).stream()
+                .filter(shop -> matches(filter, shop))
+                .sorted(order)
+                .skip(from)
+                .limit(end - from)
+                .collect(Collectors.toList());
+    }
 
-        // 6. 返回
-        return Result.ok(shops);
+    @Override
+    public Result queryShopByTypeCursor(Integer typeId, Double x, Double y, String cursor) {
+        // 1. 解析游标, 第一页从距离 -1 开始
+        DistanceCursor after = DistanceCursor.decode(cursor);
+        if (StrUtil.isNotBlank(cursor) && after == null) {
+            return Result.fail("游标无效!");
+        }
+        double afterDistance = after == null ? -1 : after.getDistance();
+        long afterId = after == null ? 0 : after.getId();
+        int limit = SystemConstants.DEFAULT_PAGE_SIZE;
+
+        // 2. 第一页与本地索引产生的游标优先查询本地网格索引, 直接从游标之后开始
+        List<GeoGridIndex.GeoHit> hits = null;
+        DistanceCursor.Source source = DistanceCursor.Source.LOCAL;
+        if (shopGeoIndex != null && (after == null || after.getSource() == DistanceCursor.Source.LOCAL)) {
+            hits = shopGeoIndex.search(typeId, x, y, SystemConstants.SHOP_GEO_RADIUS, limit, afterDistance, afterId);
+        }
+        if (hits == null) {
+            // 3. 本地索引的游标不能换到 Redis GEO 上继续, 两边的距离不一致, 会重复或遗漏店铺
+            if (after != null && after.getSource() == DistanceCursor.Source.LOCAL) {
+                return Result.fail("游标已失效, 请重新查询!");
+            }
+            // 4. 索引不可用, 从查询点所在网格的候选集合中计算
+            source = DistanceCursor.Source.CELL;
+            hits = searchGeoCell(typeId, x, y, limit, afterDistance, afterId);
+        }
+
+        // 5. 查询店铺, 最后一个店铺作为下一页的游标
+        CursorResult r = new CursorResult();
+        List<Long> ids = hits.stream().map(GeoGridIndex.GeoHit::getId).collect(Collectors.toList());
+        Map<Long, Double> distanceMap = hits.stream()
+                .collect(Collectors.toMap(GeoGridIndex.GeoHit::getId, GeoGridIndex.GeoHit::getDistance));
+        r.setList(ids.isEmpty() ? Collections.emptyList() : queryShopsWithDistance(ids, distanceMap));
+        if (hits.size() == limit) {
+            GeoGridIndex.GeoHit last = hits.get(hits.size() - 1);
+            r.setCursor(new DistanceCursor(last.getDistance(), last.getId(), source).encode());
+        }
+        return Result.ok(r);
+    }
+
+    /**
+     * 从 (x, y) 所在网格缓存的候选集合中查询游标之后最近的 limit 个店铺. 候选集合在网格内的所有请求间共享,
+     * 滚动翻页不再重复查询 Redis GEO. 候选集合被截断、凑不满一页时改为从查询点直接查询
+     */
+    private List<GeoGridIndex.GeoHit> searchGeoCell(Integer typeId, double x, double y, int limit,
+                                                    double afterDistance, long afterId) {
+        // 1. 查询点所在网格与网格中心
+        double cell = SystemConstants.SHOP_GEO_CELL_DEGREES;
+        long row = (long) Math.floor((y + 90) / cell);
+        long col = (long) Math.floor((x + 180) / cell);
+        double centerX = (col + 0.5) * cell - 180;
+        double centerY = (row + 0.5) * cell - 90;
+        ShopGeoCellDTO candidates = cacheClient.queryWithMutex(CACHE_SHOP_GEO_CELL_KEY, typeId + ":" + row + ":" + col,
+                ShopGeoCellDTO.class, id -> queryGeoCell(typeId, centerX, centerY),
+                CACHE_SHOP_GEO_CELL_TTL, TimeUnit.SECONDS, false);
+        if (candidates == null) {
+            return Collections.emptyList();
+        }
+        // 2. 离查询点 bound 米以内的店铺一定都在候选集合中
+        double bound = Math.min(SystemConstants.SHOP_GEO_RADIUS,
+                candidates.getReach() - GeoGridIndex.distance(x, y, centerX, centerY));
+        // 3. 按查询点重新计算距离, 过滤游标之前的店铺后排序
+        List<GeoGridIndex.GeoHit> hits = candidates.getCandidates().stream()
+                .map(c -> new GeoGridIndex.GeoHit(c.getId(), GeoGridIndex.distance(x, y, c.getX(), c.getY())))
+                .filter(hit -> hit.getDistance() <= bound)
+                .filter(hit -> isAfter(hit, afterDistance, afterId))
+                .sorted(GeoGridIndex.DISTANCE_ORDER)
+                .limit(limit)
+                .collect(Collectors.toList());
+        // 4. 候选集合被截断时, bound 到半径之间的店铺不在候选集合中, 凑不满一页就从查询点直接查询
+        if (hits.size() < limit && bound < SystemConstants.SHOP_GEO_RADIUS) {
+            return searchGeoDirect(typeId, x, y, limit, afterDistance, afterId);
+        }
+        return hits;
+    }
+
+    /**
+     * 以查询点为圆心查询 Redis GEO, 取回的数量从候选上限开始翻倍, 直到游标之后凑满一页或半径内的店铺全部取回.
+     * 距离与网格候选集合一样按 geohash 坐标计算, 游标可以在两种查询之间继续使用
+     */
+    private List<GeoGridIndex.GeoHit> searchGeoDirect(Integer typeId, double x, double y, int limit,
+                                                      double afterDistance, long afterId) {
+        int count = SystemConstants.SHOP_GEO_CELL_MAX_CANDIDATES;
+        while (true) {
+            GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().search(
+                    SHOP_GEO_KEY + typeId,
+                    GeoReference.fromCoordinate(x, y),
+                    new Distance(SystemConstants.SHOP_GEO_RADIUS),
+                    RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs()
+                            .includeCoordinates().sortAscending().limit(count));
+            List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list =
+                    results == null ? Collections.emptyList() : results.getContent();
+            List<GeoGridIndex.GeoHit> hits = list.stream()
+                    .map(result -> new GeoGridIndex.GeoHit(Long.valueOf(result.getContent().getName()),
+                            GeoGridIndex.distance(x, y,
+                                    result.getContent().getPoint().getX(), result.getContent().getPoint().getY())))
+                    .filter(hit -> isAfter(hit, afterDistance, afterId))
+                    .sorted(GeoGridIndex.DISTANCE_ORDER)
+                    .limit(limit)
+                    .collect(Collectors.toList());
+            if (hits.size() == limit || list.size() < count) {
+                return hits;
+            }
+            count *= 2;
+        }
+    }
+
+    /**
+     * 按 (距离, id) 在游标之后
+     */
+    private static boolean isAfter(GeoGridIndex.GeoHit hit, double afterDistance, long afterId) {
+        return hit.getDistance() > afterDistance || hit.getDistance() == afterDistance && hit.getId() > afterId;
+    }
+
+    /**
+     * 以网格中心为圆心查询 Redis GEO, 半径加上网格半对角线, 覆盖网格内任意查询点的查询范围
+     */
+    private ShopGeoCellDTO queryGeoCell(Integer typeId, double centerX, double centerY) {
+        double cell = SystemConstants.SHOP_GEO_CELL_DEGREES;
+        double halfDiagonal = GeoGridIndex.distance(centerX, centerY, centerX + cell / 2, centerY + cell / 2);
+        double radius = SystemConstants.SHOP_GEO_RADIUS + halfDiagonal;
+        int max = SystemConstants.SHOP_GEO_CELL_MAX_CANDIDATES;
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().search(
+                SHOP_GEO_KEY + typeId,
+                GeoReference.fromCoordinate(centerX, centerY),
+                new Distance(radius),
+                RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs()
+                        .includeDistance().includeCoordinates().sortAscending().limit(max));
+        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list =
+                results == null ? Collections.emptyList() : results.getContent();
+        List<ShopGeoCellDTO.Candidate> candidates = list.stream()
+                .map(result -> new ShopGeoCellDTO.Candidate(Long.valueOf(result.getContent().getName()),
+                        result.getContent().getPoint().getX(), result.getContent().getPoint().getY()))
+                .collect(Collectors.toList());
+        // 候选数量达到上限时, 只有最后一个候选之内的店铺是完整的
+        double reach = list.size() < max ? radius : list.get(list.size() - 1).getDistance().getValue();
+        return new ShopGeoCellDTO(reach, candidates);
+    }
+
+    @Override
+    public Result queryShopByName(String name, Integer current) {
+        // 1. 没有关键字或索引尚未构建, 分页查询数据库
+        int from = (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+        int end = current * SystemConstants.MAX_PAGE_SIZE;
+        List<NgramIndex.Hit> hits = StrUtil.isBlank(name) || shopNameIndex == null
+                ? null : shopNameIndex.search(name, end, null);
+        if (hits == null) {
+            Page<Shop> page = query()
+                    .like(StrUtil.isNotBlank(name), "name", name)
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+            return Result.ok(page.getRecords());
+        }
+        // 2. 截取 from ~ end 的部分
+        if (hits.size() <= from) {
+            return Result.ok(Collections.emptyList());
+        }
+        return Result.ok(queryShopsByHits(hits.subList(from, hits.size())));
+    }
+
+    @Override
+    public Result queryShopByNameCursor(String name, String cursor) {
+        // 1. 解析游标
+        NgramIndex.Hit after = NgramIndex.Hit.decode(cursor);
+        if (StrUtil.isNotBlank(cursor) && after == null) {
+            return Result.fail("游标无效!");
+        }
+        List<NgramIndex.Hit> hits = shopNameIndex == null
+                ? null : shopNameIndex.search(name, SystemConstants.MAX_PAGE_SIZE, after);
+        if (hits == null) {
+            return Result.fail("名称索引尚未就绪, 请稍后重试!");
+        }
+        // 2. 查询店铺, 最后一个结果作为下一页的游标
+        CursorResult r = new CursorResult();
+        r.setList(queryShopsByHits(hits));
+        if (hits.size() == SystemConstants.MAX_PAGE_SIZE) {
+            r.setCursor(hits.get(hits.size() - 1).encode());
+        }
+        return Result.ok(r);
+    }
+
+    private List<Shop> queryShopsByHits(List<NgramIndex.Hit> hits) {
+        if (hits.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Long> ids = hits.stream().map(NgramIndex.Hit::getId).collect(Collectors.toList());
+        return cacheClient.multiGetWithLogicalExpire(CACHE_SHOP_KEY, ids, Shop.class, this::mapShopsByIds,
+                CACHE_SHOP_TTL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 根据 id 批量查询 shop, 先查缓存, 未命中的一次查询数据库, 结果与 ids 的顺序一致
+     */
+    private List<Shop> queryShopsWithDistance(List<Long> ids, Map<Long, Double> distanceMap) {
+        List<Shop> shops = cacheClient.multiGetWithLogicalExpire(CACHE_SHOP_KEY, ids, Shop.class, this::mapShopsByIds,
+                        CACHE_SHOP_TTL, TimeUnit.SECONDS)
+                .stream()
+                // 缓存中的对象可能被本地缓存共享, 复制后再设置距离
+                .map(shop -> BeanUtil.copyProperties(shop, Shop.class))
+                .collect(Collectors.toList());
+        for (Shop shop : shops) {
+            shop.setDistance(distanceMap.get(shop.getId()));
+        }
+        return shops;
     }
 }
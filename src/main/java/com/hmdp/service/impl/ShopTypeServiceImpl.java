@@ -4,8 +4,14 @@ import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheStrategy;
+import com.hmdp.utils.Cached;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +23,12 @@ import org.springframework.stereotype.Service;
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
+    /**
+     * 店铺类型很少变化且每个页面都会查询, 使用逻辑过期缓存
+     */
+    @Override
+    @Cached(prefix = CACHE_SHOP_TYPE_KEY, key = "'list'", strategy = CacheStrategy.LOGICAL_EXPIRE, ttl = 30)
+    public List<ShopType> queryTypeList() {
+        return query().orderByAsc("sort").list();
+    }
 }
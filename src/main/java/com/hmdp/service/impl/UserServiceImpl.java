@@ -11,6 +11,8 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.Cached;
 import com.hmdp.utils.RegexUtils;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
@@ -46,6 +48,36 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    /**
+     * 批量查询用户的公开信息, 先查缓存, 未命中的用户一次查询数据库
+     * @return 按 ids 的顺序排列, 不存在的用户不出现在结果中
+     */
+    @Override
+    public List<UserDTO> queryUserDTOs(List<Long> ids) {
+        return cacheClient.multiGet(CACHE_USER_KEY, ids, UserDTO.class, this::mapUserDTOs, CACHE_USER_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 查询用户的公开信息, 与 queryUserDTOs 共用缓存
+     */
+    @Override
+    @Cached(prefix = CACHE_USER_KEY, ttl = 30)
+    public UserDTO queryUserDTO(Long id) {
+        User user = getById(id);
+        return user == null ? null : BeanUtil.copyProperties(user, UserDTO.class);
+    }
+
+    private Map<Long, UserDTO> mapUserDTOs(List<Long> ids) {
+        Map<Long, UserDTO> map = new HashMap<>(ids.size() * 2);
+        for (User user : listByIds(ids)) {
+            map.put(user.getId(), BeanUtil.copyProperties(user, UserDTO.class));
+        }
+        return map;
+    }
+
 
     @Override
     public Result sedCode(String phone, HttpSession session) {
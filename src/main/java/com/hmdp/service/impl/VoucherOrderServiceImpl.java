@@ -1,34 +1,60 @@
 package com.hmdp.service.impl;
 
+import static com.hmdp.utils.RedisConstants.LOCK_ORDER_PARTITION_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_CONSUMER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.dto.OrderConsumerStats;
 import com.hmdp.dto.Result;
+import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SeckillSoldOutRegistry;
+import com.hmdp.utils.SeckillStockClient;
+import com.hmdp.utils.SeckillVoucherMeta;
 import com.hmdp.utils.UserHolder;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.lang.UUID;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
@@ -48,89 +74,423 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
-    static {
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
-    }
-    
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    @Resource
+    private SeckillSoldOutRegistry soldOutRegistry;
+
+    @Resource
+    private SeckillStockClient seckillStockClient;
+
+    /**
+     * 本实例的标识, 与线程序号拼接成全局唯一的消费者名称
+     */
+    private static final String CONSUMER_PREFIX = UUID.randomUUID().toString(true);
+
+    /**
+     * 吞吐统计的窗口长度
+     */
+    private static final long REPORT_INTERVAL_MILLIS = 10000L;
+
+    /**
+     * 消费者刷新心跳、重新分配分区的间隔
+     */
+    private static final long REBALANCE_INTERVAL_MILLIS = 5000L;
+
+    /**
+     * 超过该时间没有心跳的消费者视为下线
+     */
+    private static final long CONSUMER_TTL_MILLIS = 15000L;
+
+    /**
+     * 每次 XREADGROUP 读取的最大消息数, 为 1 时退化为逐条处理
+     */
+    @Value("${hmdp.seckill.order.batch-size:50}")
+    private int batchSize;
+
+    /**
+     * 没有消息时 XREADGROUP 阻塞等待的最长时间 (毫秒)
+     */
+    @Value("${hmdp.seckill.order.max-wait:2000}")
+    private long maxWaitMillis;
+
+    /**
+     * 订单队列的分区数, 按 voucherId 取模, 所有实例必须一致
+     */
+    @Value("${hmdp.seckill.order.partitions:4}")
+    private int partitions;
+
+    /**
+     * 本实例的消费者线程数
+     */
+    @Value("${hmdp.seckill.order.consumers:2}")
+    private int consumers;
+
+    /**
+     * 订单消息的最多投递次数, 超过后仍处理失败的消息转入死信队列并 ACK
+     */
+    @Value("${hmdp.seckill.order.max-deliveries:5}")
+    private int maxDeliveries;
+
+    private ExecutorService seckillOrderExecutor;
+
+    private final List<VoucherOrderHandler> handlers = new CopyOnWriteArrayList<>();
+
+    private volatile boolean running = true;
+
     @PostConstruct
     private void init() {
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        // 1. 为每个分区创建消费者组 XGROUP CREATE stream.orders:{p} g1 0 MKSTREAM
+        for (int partition = 0; partition < partitions; partition++) {
+            String queueName = SeckillKeys.streamKey(partition);
+            try {
+                stringRedisTemplate.opsForStream().createGroup(queueName, ReadOffset.from("0"), SECKILL_ORDER_GROUP);
+            } catch (Exception e) {
+                // BUSYGROUP, 消费者组已经存在
+                log.debug("消费者组已存在: {}", queueName);
+            }
+        }
+        // 2. 启动消费者线程
+        seckillOrderExecutor = Executors.newFixedThreadPool(consumers);
+        for (int i = 0; i < consumers; i++) {
+            VoucherOrderHandler handler = new VoucherOrderHandler(CONSUMER_PREFIX + "-" + i);
+            handlers.add(handler);
+            seckillOrderExecutor.submit(handler);
+        }
     }
 
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        // 通知消费者退出, 消费者退出前会释放持有的分区
+        running = false;
+        seckillOrderExecutor.shutdown();
+        seckillOrderExecutor.awaitTermination(maxWaitMillis * 2, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Result queryConsumerStats() {
+        List<OrderConsumerStats> stats = new ArrayList<>(handlers.size());
+        for (VoucherOrderHandler handler : handlers) {
+            stats.add(handler.stats());
+        }
+        return Result.ok(stats);
+    }
+
+    /**
+     * 订单消费者. 每个分区同一时刻只由一个消费者处理 (分区锁保证), 未分桶的优惠券只进入一个分区,
+     * 其订单按入队顺序串行处理; 分桶的优惠券分散在多个分区, 一人一单已由归属分桶保证, 同样不需要按用户加锁
+     */
     private class VoucherOrderHandler implements Runnable {
-        String queueName = "stream.orders";
+        private final String consumerName;
+
+        /**
+         * 当前持有的分区及对应的分区锁
+         */
+        private final Map<Integer, RLock> ownedPartitions = new ConcurrentSkipListMap<>();
+
+        private long lastRebalance = 0;
+
+        /**
+         * 没有消息时轮流在各分区上阻塞等待
+         */
+        private int blockIndex = 0;
+
+        /**
+         * 运行指标
+         */
+        private final LongAdder processed = new LongAdder();
+        private volatile long throughput = 0;
+        private volatile long lagMillis = 0;
+        private long windowCount = 0;
+        private long windowBegin = System.currentTimeMillis();
+
+        VoucherOrderHandler(String consumerName) {
+            this.consumerName = consumerName;
+        }
 
         @Override
         public void run() {
-            while (true) {
+            while (running) {
                 try {
-                    // 1. 获取消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS stream.orders > 
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed())
-                    );
+                    // 1. 刷新心跳, 必要时重新分配分区; 同时处理接管的消息与之前处理失败、留在 pending-list 中的消息
+                    if (System.currentTimeMillis() - lastRebalance >= REBALANCE_INTERVAL_MILLIS) {
+                        rebalance();
+                        for (Integer partition : ownedPartitions.keySet()) {
+                            handlePendingList(partition);
+                        }
+                    }
+                    if (ownedPartitions.isEmpty()) {
+                        Thread.sleep(maxWaitMillis);
+                        continue;
+                    }
 
-                    // 2. 判断消息获取是否成功
-                    if (list == null || list.isEmpty()) {
-                        // 如果获取失败, 说明没有消息, 继续下一次循环
+                    // 2. 依次非阻塞读取每个分区 XREADGROUP GROUP g1 consumer COUNT batchSize STREAMS stream.orders:{p} >
+                    boolean handled = false;
+                    for (Integer partition : ownedPartitions.keySet()) {
+                        List<MapRecord<String, Object, Object>> list = read(partition, ReadOffset.lastConsumed(), null);
+                        if (list != null && !list.isEmpty()) {
+                            handleRecords(partition, list);
+                            handled = true;
+                        }
+                    }
+                    if (handled) {
                         continue;
                     }
-                    
-                    // 3. 解析消息中的订单信息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    // 3. 如果获取成功, 可以下单
-                    handleVoucherOrder(voucherOrder);
-                    // 4. ACK 确认 SACK stream.orders g1 id 
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
-                    
+
+                    // 3. 所有分区都没有消息, 在其中一个分区上阻塞等待
+                    List<Integer> owned = new ArrayList<>(ownedPartitions.keySet());
+                    Integer partition = owned.get(blockIndex++ % owned.size());
+                    Duration block = Duration.ofMillis(Math.max(maxWaitMillis / owned.size(), 100L));
+                    List<MapRecord<String, Object, Object>> list = read(partition, ReadOffset.lastConsumed(), block);
+                    if (list != null && !list.isEmpty()) {
+                        handleRecords(partition, list);
+                    }
+
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
                 } catch (Exception e) {
                     log.error("处理订单异常", e);
-                    handlePendingList();
+                    for (Integer partition : ownedPartitions.keySet()) {
+                        handlePendingList(partition);
+                    }
                 }
             }
+            releaseAll();
         }
 
-        private void handlePendingList() {
-            while (true) {
+        private List<MapRecord<String, Object, Object>> read(Integer partition, ReadOffset offset, Duration block) {
+            StreamReadOptions options = StreamReadOptions.empty().count(batchSize);
+            if (block != null) {
+                options = options.block(block);
+            }
+            return stringRedisTemplate.opsForStream().read(
+                    Consumer.from(SECKILL_ORDER_GROUP, consumerName),
+                    options,
+                    StreamOffset.create(SeckillKeys.streamKey(partition), offset)
+            );
+        }
+
+        /**
+         * 处理自己未 ACK 的消息. 整批失败时逐条处理, 投递次数达到 maxDeliveries 仍失败的消息转入死信队列;
+         * 连续失败 maxDeliveries 轮后返回, 剩余的消息留在 pending-list 中, 不阻塞分区内的新消息
+         */
+        private void handlePendingList(Integer partition) {
+            int failures = 0;
+            while (running && failures < maxDeliveries) {
                 try {
-                    // 1. 获取 pending-list 中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 STREAMS stream.orders 0
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create(queueName, ReadOffset.from("0"))
-                    );
+                    // 1. 获取 pending-list 中的订单信息 XREADGROUP GROUP g1 consumer COUNT batchSize STREAMS stream.orders:{p} 0
+                    //    读取历史消息时投递次数加一
+                    List<MapRecord<String, Object, Object>> list = read(partition, ReadOffset.from("0"), null);
 
                     // 2. 判断消息获取是否成功
                     if (list == null || list.isEmpty()) {
                         // 如果获取失败, 说明 pending-list 没有异常消息, 结束循环
-                        break;
+                        return;
                     }
 
-                    // 3. 解析消息中的订单信息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    // 3. 如果获取成功, 可以下单
-                    handleVoucherOrder(voucherOrder);
-                    // 4. ACK 确认 SACK stream.orders g1 id 
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
-
+                    // 3. 批量下单并 ACK, 失败时逐条处理, 找出无法处理的消息
+                    try {
+                        handleRecords(partition, list);
+                        failures = 0;
+                        continue;
+                    } catch (Exception e) {
+                        log.error("批量处理 pending-list 异常, 改为逐条处理", e);
+                    }
+                    if (handleEach(partition, list) == 0) {
+                        failures = 0;
+                        continue;
+                    }
+                    failures++;
                 } catch (Exception e) {
                     log.error("处理 pending-list 异常", e);
-                    try {
-                        Thread.sleep(20);
-                    } catch (InterruptedException ex) {
-                        throw new RuntimeException(ex);
+                    failures++;
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (failures >= maxDeliveries) {
+                log.warn("分区 {} 的 pending-list 连续处理失败 {} 次, 稍后重试", partition, failures);
+            }
+        }
+
+        /**
+         * 逐条下单并 ACK, 投递次数达到 maxDeliveries 仍失败的消息转入死信队列并 ACK
+         * @return 失败但仍留在 pending-list 中等待重试的消息数
+         */
+        private int handleEach(Integer partition, List<MapRecord<String, Object, Object>> records) {
+            // 1. 查询投递次数 XPENDING stream.orders:{p} g1 firstId lastId count consumer
+            PendingMessages pending = stringRedisTemplate.opsForStream().pending(SeckillKeys.streamKey(partition),
+                    Consumer.from(SECKILL_ORDER_GROUP, consumerName),
+                    Range.closed(records.get(0).getId().getValue(), records.get(records.size() - 1).getId().getValue()),
+                    (long) records.size());
+            Map<RecordId, Long> deliveries = new HashMap<>(records.size() * 2);
+            for (PendingMessage message : pending) {
+                deliveries.put(message.getId(), message.getTotalDeliveryCount());
+            }
+            // 2. 逐条处理
+            int remaining = 0;
+            for (MapRecord<String, Object, Object> record : records) {
+                try {
+                    handleRecords(partition, Collections.singletonList(record));
+                } catch (Exception e) {
+                    long count = deliveries.getOrDefault(record.getId(), 0L);
+                    if (count < maxDeliveries) {
+                        remaining++;
+                        continue;
                     }
+                    // 3. 重试次数用完, 转入死信队列
+                    log.error("订单消息投递 {} 次仍处理失败, 转入死信队列: {}", count, record.getId(), e);
+                    deadLetter(partition, record, e);
                 }
             }
+            return remaining;
+        }
+
+        /**
+         * 写入死信队列 XADD stream.orders.dead:{p} * ..., 再从订单队列 ACK
+         */
+        private void deadLetter(Integer partition, MapRecord<String, Object, Object> record, Exception e) {
+            Map<Object, Object> values = new HashMap<>(record.getValue());
+            values.put("sourceId", record.getId().getValue());
+            values.put("error", String.valueOf(e.getMessage()));
+            stringRedisTemplate.opsForStream().add(SeckillKeys.deadLetterKey(partition), values);
+            stringRedisTemplate.opsForStream().acknowledge(SeckillKeys.streamKey(partition), SECKILL_ORDER_GROUP, record.getId());
+        }
+
+        private void handleRecords(Integer partition, List<MapRecord<String, Object, Object>> records) {
+            // 1. 解析消息中的订单信息
+            List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+            RecordId[] recordIds = new RecordId[records.size()];
+            for (int i = 0; i < records.size(); i++) {
+                MapRecord<String, Object, Object> record = records.get(i);
+                Map<Object, Object> values = record.getValue();
+                voucherOrders.add(BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true));
+                recordIds[i] = record.getId();
+            }
+            // 2. 一个事务内批量下单
+            proxy.createVoucherOrders(voucherOrders);
+            // 3. 批量 ACK 确认 XACK stream.orders:{p} g1 id1 id2 ...
+            stringRedisTemplate.opsForStream().acknowledge(SeckillKeys.streamKey(partition), SECKILL_ORDER_GROUP, recordIds);
+            // 4. 统计吞吐与延迟, 消息 id 的时间戳部分即入队时间
+            lagMillis = System.currentTimeMillis() - recordIds[0].getTimestamp();
+            report(records.size());
+        }
+
+        private void report(int count) {
+            processed.add(count);
+            windowCount += count;
+            long now = System.currentTimeMillis();
+            long elapsed = now - windowBegin;
+            if (elapsed < REPORT_INTERVAL_MILLIS) {
+                return;
+            }
+            throughput = windowCount * 1000 / elapsed;
+            log.info("订单消费吞吐: {} 单/秒, consumer = {}, partitions = {}, lag = {} ms",
+                    throughput, consumerName, ownedPartitions.keySet(), lagMillis);
+            windowCount = 0;
+            windowBegin = now;
+        }
+
+        /**
+         * 刷新心跳, 按存活消费者重新计算负责的分区: 存活消费者按名称排序, 第 i 个消费者负责 p % n == i 的分区
+         */
+        private void rebalance() {
+            long now = System.currentTimeMillis();
+            lastRebalance = now;
+            // 1. 刷新心跳, 清理下线的消费者
+            stringRedisTemplate.opsForZSet().add(SECKILL_ORDER_CONSUMER_KEY, consumerName, now);
+            stringRedisTemplate.opsForZSet().removeRangeByScore(SECKILL_ORDER_CONSUMER_KEY, 0, now - CONSUMER_TTL_MILLIS);
+            Set<String> members = stringRedisTemplate.opsForZSet().range(SECKILL_ORDER_CONSUMER_KEY, 0, -1);
+            if (members == null || !members.contains(consumerName)) {
+                return;
+            }
+            // 2. 计算应当负责的分区
+            List<String> alive = new ArrayList<>(members);
+            Collections.sort(alive);
+            int index = alive.indexOf(consumerName);
+            Set<Integer> assigned = new HashSet<>();
+            for (int partition = index; partition < partitions; partition += alive.size()) {
+                assigned.add(partition);
+            }
+            // 3. 释放不再负责的分区
+            for (Integer partition : new ArrayList<>(ownedPartitions.keySet())) {
+                if (!assigned.contains(partition)) {
+                    release(partition);
+                }
+            }
+            // 4. 获取新分配的分区, 分区锁由 Redisson 看门狗续期, 拿不到说明原持有者还未释放, 下次再试
+            for (Integer partition : assigned) {
+                if (ownedPartitions.containsKey(partition)) {
+                    continue;
+                }
+                RLock lock = redissonClient.getLock(LOCK_ORDER_PARTITION_KEY + partition);
+                if (!lock.tryLock()) {
+                    continue;
+                }
+                ownedPartitions.put(partition, lock);
+                log.info("消费者 {} 获得分区 {}", consumerName, partition);
+                // 接管原持有者未 ACK 的消息, 之后与自己的 pending-list 一起处理
+                claimPending(partition);
+            }
+        }
+
+        /**
+         * 把分区内其他消费者未 ACK 的消息转移给自己 XCLAIM stream.orders:{p} g1 consumer 0 id1 id2 ...
+         */
+        private void claimPending(Integer partition) {
+            String queueName = SeckillKeys.streamKey(partition);
+            while (true) {
+                PendingMessages pending = stringRedisTemplate.opsForStream()
+                        .pending(queueName, SECKILL_ORDER_GROUP, Range.unbounded(), batchSize);
+                List<RecordId> ids = new ArrayList<>();
+                for (PendingMessage message : pending) {
+                    if (!consumerName.equals(message.getConsumerName())) {
+                        ids.add(message.getId());
+                    }
+                }
+                if (ids.isEmpty()) {
+                    return;
+                }
+                stringRedisTemplate.execute((RedisCallback<List<RecordId>>) connection -> connection.streamCommands()
+                        .xClaimJustId(queueName.getBytes(StandardCharsets.UTF_8), SECKILL_ORDER_GROUP, consumerName,
+                                RedisStreamCommands.XClaimOptions.minIdleMs(0).ids(ids)));
+            }
+        }
+
+        private void release(Integer partition) {
+            RLock lock = ownedPartitions.remove(partition);
+            if (lock != null && lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+            log.info("消费者 {} 释放分区 {}", consumerName, partition);
+        }
+
+        private void releaseAll() {
+            for (Integer partition : new ArrayList<>(ownedPartitions.keySet())) {
+                release(partition);
+            }
+            stringRedisTemplate.opsForZSet().remove(SECKILL_ORDER_CONSUMER_KEY, consumerName);
+        }
+
+        private OrderConsumerStats stats() {
+            OrderConsumerStats stats = new OrderConsumerStats();
+            stats.setConsumer(consumerName);
+            stats.setPartitions(new ArrayList<>(ownedPartitions.keySet()));
+            stats.setProcessed(processed.sum());
+            stats.setThroughput(throughput);
+            stats.setLagMillis(lagMillis);
+            long pending = 0;
+            for (Integer partition : ownedPartitions.keySet()) {
+                PendingMessagesSummary summary = stringRedisTemplate.opsForStream()
+                        .pending(SeckillKeys.streamKey(partition), SECKILL_ORDER_GROUP);
+                Long count = summary.getPendingMessagesPerConsumer().get(consumerName);
+                pending += count == null ? 0 : count;
+            }
+            stats.setPending(pending);
+            return stats;
         }
     }
 
@@ -152,98 +512,163 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 //        }
 //    }
 
+    @Override
+    @Transactional
     public void createVoucherOrder(VoucherOrder voucherOrder) {
+        // 同一张优惠券的订单只会由持有其分区的消费者串行处理, 不需要再按用户加锁
         Long userId = voucherOrder.getUserId();
         Long voucherId = voucherOrder.getVoucherId();
 
-        // 创建锁对象
-        RLock redisLock = redissonClient.getLock("lock:order:" + userId);
+        // 5.1 查询订单
+        int count = query().eq("user_id", userId).eq("voucher_id", voucherId).count();
 
-        // 尝试获取锁
-        boolean isLock = redisLock.tryLock();
-
-        // 判断
-        if (!isLock) {
-            // 获取锁失败, 直接返回失败 或者 重试
+        // 5.2 判断是否存在
+        if (count > 0) {
+            // 用户已经购买过了
             log.error("不允许重复下单!");
             return;
         }
 
-        try {
-            // 5.1 查询订单
-            int count = query().eq("user_id", userId).eq("voucher_id", voucherId).count();
+        // 6. 扣减库存
+        boolean success = seckillVoucherService.update().setSql("stock = stock - 1").eq("voucher_id", voucherId)
+            .gt("stock", 0).update();
 
-            // 5.2 判断是否存在
-            if (count > 0) {
-                // 用户已经购买过了
-                log.error("不允许重复下单!");
-                return;
-            }
+        if (!success) {
+            // 扣减失败
+            log.error("库存不足!");
+            return;
+        }
+        
+        save(voucherOrder);
+    }
+    
+    @Override
+    @Transactional
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        // 1. 批内去重, 同一用户对同一优惠券只保留第一条
+        Map<String, VoucherOrder> orderMap = new LinkedHashMap<>(voucherOrders.size());
+        Set<Long> userIds = new HashSet<>();
+        Set<Long> voucherIds = new HashSet<>();
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            orderMap.putIfAbsent(orderKey(voucherOrder), voucherOrder);
+            userIds.add(voucherOrder.getUserId());
+            voucherIds.add(voucherOrder.getVoucherId());
+        }
 
-            // 6. 扣减库存
-            boolean success = seckillVoucherService.update().setSql("stock = stock - 1").eq("voucher_id", voucherId)
-                .gt("stock", 0).update();
+        // 2. 一次查询过滤掉已经存在的订单 (一人一单)
+        List<VoucherOrder> existed = query()
+                .select("user_id", "voucher_id")
+                .in("user_id", userIds)
+                .in("voucher_id", voucherIds)
+                .list();
+        for (VoucherOrder voucherOrder : existed) {
+            if (orderMap.remove(orderKey(voucherOrder)) != null) {
+                log.error("不允许重复下单! userId = {}, voucherId = {}", voucherOrder.getUserId(), voucherOrder.getVoucherId());
+            }
+        }
+        if (orderMap.isEmpty()) {
+            return;
+        }
 
-            if (!success) {
-                // 扣减失败
-                log.error("库存不足!");
-                return;
+        // 3. 按优惠券分组, 每张优惠券只扣减一次库存
+        Map<Long, List<VoucherOrder>> voucherOrderMap = orderMap.values().stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+        List<VoucherOrder> orders = new ArrayList<>(orderMap.size());
+        for (Map.Entry<Long, List<VoucherOrder>> entry : voucherOrderMap.entrySet()) {
+            List<VoucherOrder> list = entry.getValue();
+            int count = deductStock(entry.getKey(), list.size());
+            if (count < list.size()) {
+                log.error("库存不足! voucherId = {}, 丢弃订单数 = {}", entry.getKey(), list.size() - count);
             }
-            
-            save(voucherOrder);
-            
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        } finally {
-            // 释放锁
-            redisLock.unlock();
+            orders.addAll(list.subList(0, count));
         }
+
+        // 4. 一次 JDBC batch 插入全部订单
+        saveBatch(orders);
     }
-    
-    private IVoucherOrderService proxy;
-    
-    private void handleVoucherOrder(VoucherOrder voucherOrder) {
-        // 1. 获取用户
-        Long userId = voucherOrder.getUserId();
-        // 2. 创建锁对象
-        RLock lock = redissonClient.getLock("lock:order:" + userId);
-        // 3. 获取锁
-        boolean isLock = lock.tryLock();
-        // 4. 判断是否获取锁成功
-        if (!isLock) {
-            // 获取锁失败, 返回错误或重试
-            log.error("不允许重复下单!");
-            return;
+
+    /**
+     * 扣减优惠券库存, 库存不足以满足整批时按剩余库存扣减
+     * @return 实际扣减的数量
+     */
+    private int deductStock(Long voucherId, int count) {
+        // 1. 整批扣减 UPDATE tb_seckill_voucher SET stock = stock - count WHERE voucher_id = ? AND stock >= count
+        boolean success = seckillVoucherService.update()
+                .setSql("stock = stock - " + count)
+                .eq("voucher_id", voucherId)
+                .ge("stock", count)
+                .update();
+        if (success) {
+            return count;
         }
-        try {
-            proxy.createVoucherOrder(voucherOrder);
-        } finally {
-            // 释放锁
-            lock.unlock();
+        // 2. 整批扣减失败, 查询剩余库存后按剩余库存扣减
+        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+        int remain = voucher == null ? 0 : Math.min(voucher.getStock(), count);
+        if (remain <= 0) {
+            return 0;
         }
+        success = seckillVoucherService.update()
+                .setSql("stock = stock - " + remain)
+                .eq("voucher_id", voucherId)
+                .ge("stock", remain)
+                .update();
+        return success ? remain : 0;
+    }
+
+    private static String orderKey(VoucherOrder voucherOrder) {
+        return voucherOrder.getUserId() + ":" + voucherOrder.getVoucherId();
     }
     
+    /**
+     * 自身的代理对象, 保证批量下单的事务生效. 消费者启动后会先处理 pending-list, 不能等到第一次秒杀请求再获取
+     */
+    @Lazy
+    @Resource
+    private IVoucherOrderService proxy;
+    
     @Override
     public Result seckillVoucher(Long voucherId) {
+        // 0. 本地已标记售罄, 直接拒绝, 不再访问 Redis
+        if (soldOutRegistry.isSoldOut(voucherId)) {
+            return Result.fail("库存不足!");
+        }
+        // 0.1 按本地缓存的秒杀时间过滤, 开抢前的请求不会打到 Redis
+        SeckillVoucherMeta meta = seckillStockClient.queryMeta(voucherId, seckillVoucherService::getById);
+        if (meta == null) {
+            return Result.fail("优惠券不存在!");
+        }
+        long now = System.currentTimeMillis();
+        if (now < meta.getBeginTime()) {
+            return Result.fail("秒杀尚未开始!");
+        }
+        if (now > meta.getEndTime()) {
+            return Result.fail("秒杀已经结束!");
+        }
         // 获取用户
         Long userId = UserHolder.getUser().getId();
         // 获取订单 id
         long orderId = redisIdWorker.nextId("order");
-        // 1. 执行 lua 脚本
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(), String.valueOf(orderId)
-        );
+        // 1. 执行 lua 脚本, 脚本按 Redis 时间再次校验秒杀时间
+        int r = seckillStockClient.seckill(meta, voucherId, userId, orderId);
         // 2. 判断结果是否为 0
-        int r = result.intValue();
+        if (r == SeckillStockClient.NOT_STARTED) {
+            return Result.fail("秒杀尚未开始!");
+        }
+        if (r == SeckillStockClient.ENDED) {
+            return Result.fail("秒杀已经结束!");
+        }
+        if (r == SeckillStockClient.NO_STOCK) {
+            // 2.1 库存不足, 标记售罄, 后续请求在本地直接拒绝
+            soldOutRegistry.markSoldOut(voucherId);
+            return Result.fail("库存不足!");
+        }
         if (r != 0) {
-            // 2.1 不为 0, 代表没有购买资格
-            return Result.fail(r == 1 ? "库存不足!" : "不能重复下单!");
+            // 2.2 不为 0, 代表没有购买资格
+            return Result.fail("不能重复下单!");
         }
-        // 3. 获取代理对象
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
-        // 4. 返回订单 id
+        // 2.3 下单成功说明仍有库存, 清除可能残留的售罄标记
+        soldOutRegistry.resetIfMarked(voucherId);
+        // 3. 返回订单 id
         return Result.ok(orderId);
     }
     
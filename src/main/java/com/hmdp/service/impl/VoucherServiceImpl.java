@@ -1,20 +1,23 @@
 package com.hmdp.service.impl;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.CacheInvalidate;
+import com.hmdp.utils.CacheStrategy;
+import com.hmdp.utils.Cached;
+import com.hmdp.utils.SeckillSoldOutRegistry;
+import com.hmdp.utils.SeckillStockClient;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
 import java.util.List;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_SHOP_KEY;
 
 /**
  * <p>
@@ -30,18 +33,26 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private ISeckillVoucherService seckillVoucherService;
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private SeckillSoldOutRegistry soldOutRegistry;
+    @Resource
+    private SeckillStockClient seckillStockClient;
 
     @Override
-    public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
-        // 返回结果
-        return Result.ok(vouchers);
+    @Cached(prefix = CACHE_VOUCHER_SHOP_KEY, strategy = CacheStrategy.MUTEX, ttl = 1)
+    public List<Voucher> queryVoucherOfShop(Long shopId) {
+        // 查询优惠券信息, 秒杀券的库存随下单变化, 缓存时间较短
+        return getBaseMapper().queryVoucherOfShop(shopId);
+    }
+
+    @Override
+    @CacheInvalidate(prefix = CACHE_VOUCHER_SHOP_KEY, key = "#voucher.shopId")
+    public void addVoucher(Voucher voucher) {
+        save(voucher);
     }
 
     @Override
     @Transactional
+    @CacheInvalidate(prefix = CACHE_VOUCHER_SHOP_KEY, key = "#voucher.shopId")
     public void addSeckillVoucher(Voucher voucher) {
         // 保存优惠券
         save(voucher);
@@ -52,7 +63,9 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        // 保存秒杀库存到Redis中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 保存秒杀库存与秒杀时间到Redis中, 库存按配置拆分到多个分桶
+        seckillStockClient.initStock(seckillVoucher);
+        // 清除所有实例上的售罄标记
+        soldOutRegistry.reset(voucher.getId());
     }
 }
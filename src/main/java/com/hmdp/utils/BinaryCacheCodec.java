@@ -0,0 +1,322 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.TypeUtil;
+import cn.hutool.json.JSONUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * BinaryCacheCodec 按类型结构编码的二进制格式.
+ * 头部固定 17 字节: 1 字节魔数, 8 字节逻辑过期时间, 4 字节重建耗时, 4 字节结构哈希, 读取逻辑过期时间与重建耗时不需要解码数据;
+ * 数据部分按字段名排序依次写入, 先写空值位图, 整数使用 zigzag 变长编码, 其他类型 (集合、嵌套对象) 退化为 JSON 字符串.
+ * 类的字段变化后结构哈希随之变化, 旧数据解码失败, 由 CacheClient 当作未命中处理
+**/
+public class BinaryCacheCodec implements CacheCodec {
+
+    private static final byte MAGIC = (byte) 0xCC;
+
+    private static final int EXPIRE_AT_OFFSET = 1;
+
+    private static final int REBUILD_COST_OFFSET = EXPIRE_AT_OFFSET + 8;
+
+    private static final int SCHEMA_HASH_OFFSET = REBUILD_COST_OFFSET + 4;
+
+    private static final int HEADER_LENGTH = SCHEMA_HASH_OFFSET + 4;
+
+    /**
+     * 类型 -> 字段结构, 类的结构在运行期间不会变化
+     */
+    private final ConcurrentHashMap<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+    @Override
+    public byte[] encode(Object value, long expireAt, long rebuildCost) {
+        Schema schema = schemaOf(value.getClass());
+        Output out = new Output();
+        out.buffer.write(MAGIC);
+        out.writeFixedLong(expireAt);
+        out.writeFixedInt((int) Math.min(rebuildCost, Integer.MAX_VALUE));
+        out.writeFixedInt(schema.hash);
+        if (schema.kind != Kind.BEAN) {
+            writeValue(out, schema.kind, value);
+            return out.buffer.toByteArray();
+        }
+        try {
+            // 空值位图
+            byte[] nulls = new byte[(schema.fields.size() + 7) / 8];
+            Object[] values = new Object[schema.fields.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = schema.fields.get(i).field.get(value);
+                if (values[i] == null) {
+                    nulls[i / 8] |= 1 << (i % 8);
+                }
+            }
+            out.buffer.write(nulls, 0, nulls.length);
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    writeValue(out, schema.fields.get(i).kind, values[i]);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.buffer.toByteArray();
+    }
+
+    @Override
+    public long readExpireAt(byte[] bytes) {
+        return header(bytes).getLong(EXPIRE_AT_OFFSET);
+    }
+
+    @Override
+    public long readRebuildCost(byte[] bytes) {
+        return header(bytes).getInt(REBUILD_COST_OFFSET);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <R> R decode(byte[] bytes, Type type) {
+        ByteBuffer in = header(bytes);
+        // 泛型类型按原始类型计算结构, 数据本身按 JSON 解码时使用完整的泛型类型
+        Class<?> rawType = TypeUtil.getClass(type);
+        Schema schema = schemaOf(rawType);
+        if (in.getInt(SCHEMA_HASH_OFFSET) != schema.hash) {
+            throw new IllegalArgumentException("缓存数据结构与 " + type.getTypeName() + " 不一致");
+        }
+        in.position(HEADER_LENGTH);
+        if (schema.kind != Kind.BEAN) {
+            return (R) readValue(in, schema.kind, type);
+        }
+        try {
+            R r = (R) rawType.getDeclaredConstructor().newInstance();
+            byte[] nulls = new byte[(schema.fields.size() + 7) / 8];
+            in.get(nulls);
+            for (int i = 0; i < schema.fields.size(); i++) {
+                if ((nulls[i / 8] & (1 << (i % 8))) != 0) {
+                    continue;
+                }
+                FieldSchema fieldSchema = schema.fields.get(i);
+                fieldSchema.field.set(r, readValue(in, fieldSchema.kind, fieldSchema.field.getGenericType()));
+            }
+            return r;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ByteBuffer header(byte[] bytes) {
+        if (bytes.length < HEADER_LENGTH || bytes[0] != MAGIC) {
+            throw new IllegalArgumentException("不是二进制缓存格式");
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private Schema schemaOf(Class<?> type) {
+        return schemas.computeIfAbsent(type, Schema::new);
+    }
+
+    private static void writeValue(Output out, Kind kind, Object value) {
+        switch (kind) {
+            case LONG:
+            case INT:
+                out.writeVarLong(((Number) value).longValue());
+                break;
+            case DOUBLE:
+                out.writeFixedLong(Double.doubleToLongBits((Double) value));
+                break;
+            case BOOLEAN:
+                out.buffer.write((Boolean) value ? 1 : 0);
+                break;
+            case LOCAL_DATE_TIME:
+                LocalDateTime time = (LocalDateTime) value;
+                out.writeVarLong(time.toEpochSecond(ZoneOffset.UTC));
+                out.writeVarLong(time.getNano());
+                break;
+            case LOCAL_DATE:
+                out.writeVarLong(((LocalDate) value).toEpochDay());
+                break;
+            case STRING:
+                out.writeString((String) value);
+                break;
+            case DECIMAL:
+                out.writeString(value.toString());
+                break;
+            default:
+                out.writeString(JSONUtil.toJsonStr(value));
+        }
+    }
+
+    private static Object readValue(ByteBuffer in, Kind kind, Type type) {
+        switch (kind) {
+            case LONG:
+                return readVarLong(in);
+            case INT:
+                return (int) readVarLong(in);
+            case DOUBLE:
+                return Double.longBitsToDouble(in.getLong());
+            case BOOLEAN:
+                return in.get() != 0;
+            case LOCAL_DATE_TIME:
+                long second = readVarLong(in);
+                return LocalDateTime.ofEpochSecond(second, (int) readVarLong(in), ZoneOffset.UTC);
+            case LOCAL_DATE:
+                return LocalDate.ofEpochDay(readVarLong(in));
+            case STRING:
+                return readString(in);
+            case DECIMAL:
+                return new BigDecimal(readString(in));
+            default:
+                return JSONUtil.toBean(readString(in), type, false);
+        }
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long raw = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            raw |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        // zigzag 解码
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = (int) readVarLong(in);
+        String s = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    private enum Kind {
+        LONG, INT, DOUBLE, BOOLEAN, LOCAL_DATE_TIME, LOCAL_DATE, STRING, DECIMAL, JSON, BEAN;
+
+        static Kind of(Class<?> type) {
+            if (type == Long.class || type == long.class) {
+                return LONG;
+            }
+            if (type == Integer.class || type == int.class || type == Short.class || type == short.class
+                    || type == Byte.class || type == byte.class) {
+                return INT;
+            }
+            if (type == Double.class || type == double.class) {
+                return DOUBLE;
+            }
+            if (type == Boolean.class || type == boolean.class) {
+                return BOOLEAN;
+            }
+            if (type == LocalDateTime.class) {
+                return LOCAL_DATE_TIME;
+            }
+            if (type == LocalDate.class) {
+                return LOCAL_DATE;
+            }
+            if (type == String.class) {
+                return STRING;
+            }
+            if (type == BigDecimal.class) {
+                return DECIMAL;
+            }
+            return JSON;
+        }
+    }
+
+    private static class FieldSchema {
+        private final Field field;
+        private final Kind kind;
+
+        private FieldSchema(Field field) {
+            field.setAccessible(true);
+            this.field = field;
+            Kind k = Kind.of(field.getType());
+            // short/byte 字段按 int 读出后无法直接赋值, 退化为 JSON
+            boolean narrow = field.getType() == Short.class || field.getType() == short.class
+                    || field.getType() == Byte.class || field.getType() == byte.class;
+            this.kind = narrow ? Kind.JSON : k;
+        }
+    }
+
+    /**
+     * 类型的字段结构: 实例字段按名称排序, 结构哈希由字段名与字段类型计算
+     */
+    private static class Schema {
+        private final Kind kind;
+        private final List<FieldSchema> fields = new ArrayList<>();
+        private final int hash;
+
+        private Schema(Class<?> type) {
+            Kind k = Kind.of(type);
+            boolean bean = k == Kind.JSON && !type.isArray() && !type.isInterface()
+                    && !type.getName().startsWith("java.");
+            this.kind = bean ? Kind.BEAN : k;
+            // 非 Bean 类型只按编码方式区分, 写入 ArrayList 后可以按 List 读取
+            StringBuilder signature = new StringBuilder(bean ? type.getName() : kind.name());
+            if (bean) {
+                List<Field> declared = new ArrayList<>();
+                for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                    for (Field field : c.getDeclaredFields()) {
+                        int modifiers = field.getModifiers();
+                        if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                            declared.add(field);
+                        }
+                    }
+                }
+                declared.sort(Comparator.comparing(Field::getName));
+                for (Field field : declared) {
+                    fields.add(new FieldSchema(field));
+                    signature.append(';').append(field.getName()).append(':').append(field.getGenericType().getTypeName());
+                }
+            }
+            this.hash = signature.toString().hashCode();
+        }
+    }
+
+    /**
+     * 基于 ByteArrayOutputStream 的写入, 补充定长与变长整数编码
+     */
+    private static class Output {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
+
+        private void writeFixedLong(long v) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer.write((int) (v >>> shift));
+            }
+        }
+
+        private void writeFixedInt(int v) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                buffer.write(v >>> shift);
+            }
+        }
+
+        private void writeVarLong(long v) {
+            // zigzag 编码, 小的负数也只占一个字节
+            long raw = (v << 1) ^ (v >> 63);
+            while ((raw & ~0x7FL) != 0) {
+                buffer.write((int) ((raw & 0x7F) | 0x80));
+                raw >>>= 7;
+            }
+            buffer.write((int) raw);
+        }
+
+        private void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            buffer.write(bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.hmdp.utils;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.function.Function;
+
+/**
+ * CacheAspect 处理 @Cached. 优先级最高, 位于事务代理外层, 缓存命中时不开启事务.
+ * 删除缓存的 @CacheInvalidate 由 CacheInvalidateAspect 在事务内层处理
+**/
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class CacheAspect {
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private CacheKeyEvaluator keyEvaluator;
+
+    @Around("@annotation(cached)")
+    public Object around(ProceedingJoinPoint joinPoint, Cached cached) {
+        Method method = keyEvaluator.targetMethod(joinPoint);
+        String id = keyEvaluator.key(cached.key(), method, joinPoint);
+        Type type = method.getGenericReturnType();
+        // 方法体即数据库查询
+        Function<String, Object> dbFallback = ignored -> proceed(joinPoint);
+        switch (cached.strategy()) {
+            case MUTEX:
+                return cacheClient.queryWithMutex(cached.prefix(), id, type, dbFallback,
+                        cached.ttl(), cached.unit(), cached.cacheNull());
+            case LOGICAL_EXPIRE:
+                // 没有预热的 key 在第一次查询时由 CacheClient 加锁同步写入
+                return cacheClient.queryWithLogicalExpire(cached.prefix(), id, type, dbFallback,
+                        cached.ttl(), cached.unit(), cached.cacheNull());
+            default:
+                return cacheClient.queryWithPassThrough(cached.prefix(), id, type, dbFallback,
+                        cached.ttl(), cached.unit(), cached.cacheNull());
+        }
+    }
+
+    private Object proceed(ProceedingJoinPoint joinPoint) {
+        try {
+            return joinPoint.proceed();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,171 +1,806 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.hmdp.dto.HotKeyDTO;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
-import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
 
 @Slf4j
 @Component
-public class CacheClient {
+public class CacheClient implements MessageListener {
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    /**
+     * 缓存值的读写, 值由 codec 编码为字节数组
+     */
+    private final RedisTemplate<String, byte[]> bytesRedisTemplate;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    private final CacheCodec codec;
+
+    private final RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private final CacheMetrics cacheMetrics;
+
+    /**
+     * 逻辑过期缓存的异步重建, 去重并限制排队数
+     */
+    private final CacheRebuildScheduler rebuildScheduler;
+
+    /**
+     * 互斥锁重建时等待结果的最长时间
+     */
+    private static final long REBUILD_WAIT_MILLIS = 3000L;
+
+    /**
+     * 其他实例持有互斥锁时, leader 查看重建结果的间隔
+     */
+    private static final long REBUILD_RETRY_MILLIS = 50L;
+
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    /**
+     * 热点检测 Count-Min Sketch 每一行的宽度
+     */
+    private static final int HOT_KEY_SKETCH_WIDTH = 4096;
+
+    /**
+     * 概率提前刷新的系数 beta, 越大刷新越早, 0 代表只在逻辑过期后重建
+     */
+    @Value("${hmdp.cache.early-refresh-beta:1.0}")
+    private double earlyRefreshBeta;
+
+    /**
+     * 写入时过期时间的随机抖动比例
+     */
+    @Value("${hmdp.cache.ttl-jitter:0.1}")
+    private double ttlJitter;
+
+    /**
+     * 一个统计窗口内访问次数达到该值的 key 视为热点
+     */
+    @Value("${hmdp.cache.hot-key.threshold:500}")
+    private long hotKeyThreshold;
+
+    /**
+     * 热点统计窗口 (毫秒), 每个窗口计数衰减一半
+     */
+    @Value("${hmdp.cache.hot-key.window:5000}")
+    private long hotKeyWindowMillis;
+
+    /**
+     * 最多同时保留的热点 key 数量
+     */
+    @Value("${hmdp.cache.hot-key.top-k:50}")
+    private int hotKeyTopK;
+
+    /**
+     * 访问记录的采样率
+     */
+    @Value("${hmdp.cache.hot-key.sample-rate:0.1}")
+    private double hotKeySampleRate;
+
+    /**
+     * 热点 key 本地副本的过期时间 (毫秒)
+     */
+    @Value("${hmdp.cache.hot-key.replica-ttl:5000}")
+    private long hotKeyReplicaTtlMillis;
+
+    private HotKeyDetector hotKeyDetector;
+
+    /**
+     * 热点 key 的短期本地副本, 只保存未注册本地缓存的前缀下的热点 key
+     */
+    private Cache<String, Object> hotReplica;
+
+    private ScheduledExecutorService hotKeyScheduler;
+
+    /**
+     * Redis 中代表空值的缓存, 防止缓存穿透
+     */
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * 本地缓存中代表空值的占位对象, Guava Cache 不能存 null
+     */
+    private static final Object NULL_VALUE = new Object();
+
+    /**
+     * keyPrefix -> 本地缓存 (一级缓存), 只有注册过的前缀才使用本地缓存
+     */
+    private final Map<String, Cache<String, Object>> localCaches = new ConcurrentHashMap<>();
+
+    /**
+     * keyPrefix -> 布隆过滤器, 查询缓存前拦截一定不存在的 id
+     */
+    private final Map<String, RedisBloomFilter> bloomFilters = new ConcurrentHashMap<>();
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate,
+                       RedisTemplate<String, byte[]> bytesRedisTemplate,
+                       RedisMessageListenerContainer redisMessageListenerContainer,
+                       CacheMetrics cacheMetrics,
+                       CacheRebuildScheduler rebuildScheduler,
+                       @Value("${hmdp.cache.codec:binary}") String codec) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.bytesRedisTemplate = bytesRedisTemplate;
+        this.redisMessageListenerContainer = redisMessageListenerContainer;
+        this.cacheMetrics = cacheMetrics;
+        this.rebuildScheduler = rebuildScheduler;
+        this.codec = "json".equals(codec) ? new JsonCacheCodec() : new BinaryCacheCodec();
+    }
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        hotReplica = CacheBuilder.newBuilder()
+                .maximumSize(hotKeyTopK)
+                .expireAfterWrite(hotKeyReplicaTtlMillis, TimeUnit.MILLISECONDS)
+                .build();
+        // 热点 key 冷却后删除本地副本
+        hotKeyDetector = new HotKeyDetector(HOT_KEY_SKETCH_WIDTH, hotKeyTopK, hotKeyThreshold, hotKeySampleRate,
+                hotReplica::invalidate);
+        hotKeyScheduler = Executors.newSingleThreadScheduledExecutor();
+        hotKeyScheduler.scheduleAtFixedRate(hotKeyDetector::decay, hotKeyWindowMillis, hotKeyWindowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        hotKeyScheduler.shutdownNow();
+    }
+
+    /**
+     * 当前热点 key 及访问次数估计
+     */
+    public List<HotKeyDTO> hotKeys() {
+        return hotKeyDetector.hotKeys();
+    }
+
+    /**
+     * 为 keyPrefix 开启本地缓存, 按容量淘汰, 写入 time 之后过期. 过期时间是其他实例写入后本地数据最长的不一致时间,
+     * 正常情况下修改数据时调用 evict, 通过发布订阅让所有实例立即删除本地缓存
+     */
+    public void registerLocalCache(String keyPrefix, long maximumSize, Long time, TimeUnit unit) {
+        localCaches.put(keyPrefix, CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(time, unit)
+                .build());
+    }
+
+    /**
+     * 为 keyPrefix 注册布隆过滤器, queryWithPassThrough 与 queryWithMutex 会先用它判断 id 是否存在,
+     * 一定不存在的 id 直接返回 null, 不访问 Redis 和数据库, 也不写入空值缓存
+     */
+    public void registerBloomFilter(String keyPrefix, RedisBloomFilter bloomFilter) {
+        bloomFilters.put(keyPrefix, bloomFilter);
+    }
+
+    private <ID> boolean mightContain(String keyPrefix, ID id) {
+        RedisBloomFilter bloomFilter = bloomFilters.get(keyPrefix);
+        return bloomFilter == null || !(id instanceof Long) || bloomFilter.mightContain((Long) id);
+    }
+
+    /**
+     * 删除 Redis 缓存, 并通知所有实例删除本地缓存
+     */
+    public <ID> void evict(String keyPrefix, ID id) {
+        String key = keyPrefix + id;
+        stringRedisTemplate.delete(key);
+        invalidateLocal(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        invalidateLocal(key);
+        log.debug("本地缓存失效: {}", key);
+    }
+
+    private void invalidateLocal(String key) {
+        hotReplica.invalidate(key);
+        for (Map.Entry<String, Cache<String, Object>> entry : localCaches.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                entry.getValue().invalidate(key);
+            }
+        }
+    }
+
+    private void putLocal(String keyPrefix, String key, Object value) {
+        Cache<String, Object> cache = localCaches.get(keyPrefix);
+        if (cache == null && hotKeyDetector.isHot(key)) {
+            // 未注册本地缓存的热点 key 自动保存短期副本
+            cache = hotReplica;
+        }
+        if (cache != null) {
+            cache.put(key, value == null ? NULL_VALUE : value);
+        }
+    }
+
+    private Object getLocal(String keyPrefix, String key) {
+        // 每次查询都会先查本地缓存, 在这里记录访问
+        hotKeyDetector.record(key);
+        Cache<String, Object> cache = localCaches.get(keyPrefix);
+        if (cache == null) {
+            cache = hotReplica;
+        }
+        return cache.getIfPresent(key);
     }
 
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        bytesRedisTemplate.opsForValue().set(key, codec.encode(value, 0, 0), withJitter(unit.toMillis(time)), TimeUnit.MILLISECONDS);
     }
 
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
-        // 设置逻辑过期
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        // 写入Redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        setWithLogicalExpire(key, value, time, unit, 0);
+    }
+
+    /**
+     * @param rebuildCost 重建耗时 (毫秒), 用于概率提前刷新
+     */
+    public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit, long rebuildCost) {
+        // 设置逻辑过期, 写入Redis
+        long expireAt = System.currentTimeMillis() + withJitter(unit.toMillis(time));
+        bytesRedisTemplate.opsForValue().set(key, codec.encode(value, expireAt, rebuildCost));
+    }
+
+    /**
+     * 用 pipeline 批量写入逻辑过期缓存, 用于缓存预热. 每个 key 的过期时间单独抖动
+     * @param entries key -> 数据
+     */
+    public void setWithLogicalExpire(Map<String, ?> entries, Long time, TimeUnit unit) {
+        long now = System.currentTimeMillis();
+        bytesRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<String, ?> entry : entries.entrySet()) {
+                long expireAt = now + withJitter(unit.toMillis(time));
+                connection.set(entry.getKey().getBytes(StandardCharsets.UTF_8), codec.encode(entry.getValue(), expireAt, 0));
+            }
+            return null;
+        });
+        for (String key : entries.keySet()) {
+            invalidateLocal(key);
+        }
+    }
+
+    /**
+     * 过期时间加上 [0, ttlJitter) 比例的随机抖动, 批量写入的 key 不会在同一时刻过期
+     */
+    private long withJitter(long millis) {
+        if (ttlJitter <= 0 || millis <= 0) {
+            return millis;
+        }
+        return millis + (long) (millis * ttlJitter * ThreadLocalRandom.current().nextDouble());
+    }
+
+    private void setEmpty(String key) {
+        bytesRedisTemplate.opsForValue().set(key, EMPTY, CACHE_NULL_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 解码缓存值, 编码方式或类型结构变化导致无法解码时返回 null, 当作未命中处理
+     */
+    private <R> R decode(String key, byte[] bytes, Type type) {
+        try {
+            return codec.decode(bytes, type);
+        } catch (IllegalArgumentException e) {
+            log.debug("缓存数据无法解码, 当作未命中: {}, {}", key, e.getMessage());
+            return null;
+        }
     }
 
     public <R,ID> R queryWithPassThrough(
-            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
+            String keyPrefix, ID id, Type type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
+        return queryWithPassThrough(keyPrefix, id, type, dbFallback, time, unit, true);
+    }
+
+    /**
+     * @param cacheNull 数据库中不存在时是否写入空值缓存
+     */
+    public <R,ID> R queryWithPassThrough(
+            String keyPrefix, ID id, Type type, Function<ID, R> dbFallback, Long time, TimeUnit unit, boolean cacheNull){
+        // 布隆过滤器判断一定不存在, 直接返回
+        if (!mightContain(keyPrefix, id)) {
+            cacheMetrics.record(keyPrefix, CacheMetrics.BLOOM_REJECT);
+            return null;
+        }
         String key = keyPrefix + id;
+        // 0.查询本地缓存
+        Object local = getLocal(keyPrefix, key);
+        if (local != null) {
+            return cachedValue(keyPrefix, local, type, CacheMetrics.LOCAL_HIT);
+        }
         // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        Object cached = getFromRedis(keyPrefix, key, type);
         // 2.判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(json, type);
-        }
-        // 判断命中的是否是空值
-        if (json != null) {
-            // 返回一个错误信息
-            return null;
+        if (cached != null) {
+            // 3.存在 (包括空值)，直接返回
+            return cachedValue(keyPrefix, cached, type, CacheMetrics.REDIS_HIT);
         }
 
         // 4.不存在，根据id查询数据库
+        cacheMetrics.record(keyPrefix, CacheMetrics.MISS);
+        long begin = System.currentTimeMillis();
         R r = dbFallback.apply(id);
+        cacheMetrics.recordRebuild(keyPrefix, System.currentTimeMillis() - begin);
         // 5.不存在，返回错误
         if (r == null) {
             // 将空值写入redis
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            if (cacheNull) {
+                setEmpty(key);
+            }
             // 返回错误信息
             return null;
         }
         // 6.存在，写入redis
         this.set(key, r, time, unit);
+        putLocal(keyPrefix, key, r);
         return r;
     }
 
     public <R, ID> R queryWithLogicalExpire(
-            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+            String keyPrefix, ID id, Type type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        return queryWithLogicalExpire(keyPrefix, id, type, dbFallback, time, unit, true);
+    }
+
+    /**
+     * 未命中 (未预热或已被删除) 时同步重建, 与 queryWithMutex 相同: 本实例内只有 leader 竞争互斥锁
+     * @param cacheNull 数据库中不存在时是否写入空值缓存
+     */
+    @SuppressWarnings("unchecked")
+    public <R, ID> R queryWithLogicalExpire(
+            String keyPrefix, ID id, Type type, Function<ID, R> dbFallback, Long time, TimeUnit unit, boolean cacheNull) {
+        // 布隆过滤器判断一定不存在, 直接返回
+        if (!mightContain(keyPrefix, id)) {
+            cacheMetrics.record(keyPrefix, CacheMetrics.BLOOM_REJECT);
+            return null;
+        }
         String key = keyPrefix + id;
+        // 0.查询本地缓存, 本地缓存保存反序列化后的数据与逻辑过期时间
+        Object local = getLocal(keyPrefix, key);
+        if (local == NULL_VALUE) {
+            cacheMetrics.record(keyPrefix, CacheMetrics.NULL_HIT);
+            return null;
+        }
+        // 其他方式写入同一前缀的值 (如 queryWithPassThrough 写入的数据) 没有逻辑过期时间, 当作未命中
+        if (local instanceof LogicalValue) {
+            LogicalValue localValue = (LogicalValue) local;
+            if (System.currentTimeMillis() < localValue.expireAt) {
+                // 未过期, 按概率提前刷新
+                if (shouldRefreshEarly(localValue)) {
+                    rebuildAsync(keyPrefix, key, false, id, dbFallback, time, unit);
+                }
+                cacheMetrics.record(keyPrefix, CacheMetrics.LOCAL_HIT);
+                return (R) localValue.data;
+            }
+            // 本地已逻辑过期, 到 Redis 查询, 其他实例可能已经重建
+        }
         // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = bytesRedisTemplate.opsForValue().get(key);
         // 2.判断是否存在
-        if (StrUtil.isBlank(json)) {
-            // 3.存在，直接返回
+        if (bytes == null) {
+            // 3.不存在，同步重建
+            cacheMetrics.record(keyPrefix, CacheMetrics.MISS);
+            return singleFlight.execute(key,
+                    () -> rebuildWithMutex(keyPrefix, id, type, dbFallback, time, unit, cacheNull, true),
+                    REBUILD_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        if (bytes.length == 0) {
+            // 3.1.空值
+            putLocal(keyPrefix, key, null);
+            cacheMetrics.record(keyPrefix, CacheMetrics.NULL_HIT);
             return null;
         }
-        // 4.命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        LocalDateTime expireTime = redisData.getExpireTime();
+        // 4.命中，解码数据与逻辑过期时间
+        R r = decode(key, bytes, type);
+        if (r == null) {
+            // 4.1.旧格式的数据无法解码, 与未命中相同, 加锁同步重建; 滚动发布期间新旧实例交替写入时不会击穿数据库
+            cacheMetrics.record(keyPrefix, CacheMetrics.MISS);
+            return singleFlight.execute(key,
+                    () -> rebuildWithMutex(keyPrefix, id, type, dbFallback, time, unit, cacheNull, true),
+                    REBUILD_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        LogicalValue value = new LogicalValue(r, codec.readExpireAt(bytes), codec.readRebuildCost(bytes));
+        putLocal(keyPrefix, key, value);
         // 5.判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())) {
-            // 5.1.未过期，直接返回店铺信息
+        long now = System.currentTimeMillis();
+        if (now < value.expireAt) {
+            // 5.1.未过期，直接返回店铺信息, 按概率提前刷新
+            if (shouldRefreshEarly(value)) {
+                rebuildAsync(keyPrefix, key, false, id, dbFallback, time, unit);
+            }
+            cacheMetrics.record(keyPrefix, CacheMetrics.REDIS_HIT);
             return r;
         }
-        // 5.2.已过期，需要缓存重建
-        // 6.缓存重建
-        // 6.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        // 6.2.判断是否获取锁成功
-        if (isLock){
-            // 6.3.成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    // 查询数据库
-                    R newR = dbFallback.apply(id);
-                    // 重建缓存
-                    this.setWithLogicalExpire(key, newR, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }finally {
-                    // 释放锁
-                    unlock(lockKey);
-                }
-            });
-        }
+        // 5.2.已过期，需要缓存重建, 队列已满时同样返回旧数据
+        rebuildAsync(keyPrefix, key, true, id, dbFallback, time, unit);
         // 6.4.返回过期的商铺信息
+        cacheMetrics.recordStale(keyPrefix, now - value.expireAt);
         return r;
     }
 
+    /**
+     * XFetch 概率提前刷新: now - cost * beta * ln(rand) >= expireAt 时刷新.
+     * 越接近过期、重建耗时越长, 提前刷新的概率越大, 热点 key 通常在过期前已被一个请求刷新
+     */
+    private boolean shouldRefreshEarly(LogicalValue value) {
+        if (earlyRefreshBeta <= 0 || value.rebuildCost <= 0) {
+            return false;
+        }
+        // 1 - nextDouble() 的范围是 (0, 1], 避免 ln(0)
+        double gap = -value.rebuildCost * earlyRefreshBeta * Math.log(1 - ThreadLocalRandom.current().nextDouble());
+        return System.currentTimeMillis() + gap >= value.expireAt;
+    }
+
+    /**
+     * 提交异步重建, 同一个 key 在本实例内只排队一次, 互斥锁在重建线程中获取, 保证多个实例只有一个重建
+     * @param expired 是否已逻辑过期, 已过期的优先于提前刷新的重建
+     */
+    private <R, ID> void rebuildAsync(String keyPrefix, String key, boolean expired, ID id,
+                                      Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        // 6.缓存重建, 按热度排队
+        rebuildScheduler.submit(keyPrefix, key, expired, hotKeyDetector.estimate(key), () -> {
+            // 6.1.获取互斥锁
+            String lockKey = lockKey(keyPrefix, id);
+            boolean isLock = tryLock(lockKey);
+            cacheMetrics.recordLock(keyPrefix, isLock);
+            // 6.2.判断是否获取锁成功, 失败说明其他实例正在重建
+            if (!isLock) {
+                return;
+            }
+            // 6.3.成功，实现缓存重建
+            try {
+                rebuild(keyPrefix, key, id, dbFallback, time, unit);
+            } finally {
+                // 释放锁
+                unlock(lockKey);
+            }
+        });
+    }
+
+    /**
+     * 查询数据库并写入逻辑过期缓存, 同时记录重建耗时
+     */
+    private <R, ID> R rebuild(String keyPrefix, String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        // 查询数据库
+        long begin = System.currentTimeMillis();
+        R r = dbFallback.apply(id);
+        long cost = System.currentTimeMillis() - begin;
+        cacheMetrics.recordRebuild(keyPrefix, cost);
+        // 重建缓存
+        if (r != null) {
+            this.setWithLogicalExpire(key, r, time, unit, cost);
+        }
+        invalidateLocal(key);
+        return r;
+    }
+
+    public <R, ID> R queryWithMutex(
+            String keyPrefix, ID id, Type type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit, true);
+    }
+
+    /**
+     * @param cacheNull 数据库中不存在时是否写入空值缓存
+     */
     public <R, ID> R queryWithMutex(
-            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+            String keyPrefix, ID id, Type type, Function<ID, R> dbFallback, Long time, TimeUnit unit, boolean cacheNull) {
+        // 布隆过滤器判断一定不存在, 直接返回
+        if (!mightContain(keyPrefix, id)) {
+            cacheMetrics.record(keyPrefix, CacheMetrics.BLOOM_REJECT);
+            return null;
+        }
         String key = keyPrefix + id;
+        // 0.查询本地缓存
+        Object local = getLocal(keyPrefix, key);
+        if (local != null) {
+            return cachedValue(keyPrefix, local, type, CacheMetrics.LOCAL_HIT);
+        }
         // 1.从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
+        Object cached = getFromRedis(keyPrefix, key, type);
         // 2.判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(shopJson, type);
-        }
-        // 判断命中的是否是空值
-        if (shopJson != null) {
-            // 返回一个错误信息
-            return null;
+        if (cached != null) {
+            // 3.存在 (包括空值)，直接返回
+            return cachedValue(keyPrefix, cached, type, CacheMetrics.REDIS_HIT);
         }
 
-        // 4.实现缓存重建
-        // 4.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        R r = null;
-        try {
+        // 4.实现缓存重建, 同一个 JVM 内只有 leader 竞争互斥锁, 其他请求等待 leader 的结果
+        cacheMetrics.record(keyPrefix, CacheMetrics.MISS);
+        return singleFlight.execute(key,
+                () -> rebuildWithMutex(keyPrefix, id, type, dbFallback, time, unit, cacheNull, false),
+                REBUILD_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param logical 是否写入逻辑过期缓存
+     */
+    @SuppressWarnings("unchecked")
+    private <R, ID> R rebuildWithMutex(String keyPrefix, ID id, Type type, Function<ID, R> dbFallback,
+                                       Long time, TimeUnit unit, boolean cacheNull, boolean logical) {
+        String key = keyPrefix + id;
+        String lockKey = lockKey(keyPrefix, id);
+        long deadline = System.currentTimeMillis() + REBUILD_WAIT_MILLIS;
+        while (true) {
+            // 4.1.获取互斥锁
             boolean isLock = tryLock(lockKey);
-            // 4.2.判断是否获取成功
-            if (!isLock) {
-                // 4.3.获取锁失败，休眠并重试
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
-            }
-            // 4.4.获取锁成功，根据id查询数据库
-            r = dbFallback.apply(id);
-            // 5.不存在，返回错误
-            if (r == null) {
-                // 将空值写入redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 返回错误信息
+            cacheMetrics.recordLock(keyPrefix, isLock);
+            if (isLock) {
+                try {
+                    // 4.2.获取锁成功，再次检查缓存, 其他实例可能刚刚完成重建
+                    Object cached = getFromRedis(keyPrefix, key, type, logical);
+                    if (cached != null) {
+                        return cached == NULL_VALUE ? null : (R) cached;
+                    }
+                    // 4.3.根据id查询数据库
+                    long begin = System.currentTimeMillis();
+                    R r = dbFallback.apply(id);
+                    long cost = System.currentTimeMillis() - begin;
+                    cacheMetrics.recordRebuild(keyPrefix, cost);
+                    // 5.不存在，返回错误
+                    if (r == null) {
+                        // 将空值写入redis
+                        if (cacheNull) {
+                            setEmpty(key);
+                            putLocal(keyPrefix, key, null);
+                        }
+                        // 返回错误信息
+                        return null;
+                    }
+                    // 6.存在，写入redis
+                    if (logical) {
+                        this.setWithLogicalExpire(key, r, time, unit, cost);
+                        putLocal(keyPrefix, key, new LogicalValue(r, System.currentTimeMillis() + unit.toMillis(time), cost));
+                    } else {
+                        this.set(key, r, time, unit);
+                        putLocal(keyPrefix, key, r);
+                    }
+                    return r;
+                } finally {
+                    // 7.释放锁
+                    unlock(lockKey);
+                }
+            }
+            // 4.4.其他实例正在重建, 只有 leader 休眠后查看重建结果
+            if (System.currentTimeMillis() + REBUILD_RETRY_MILLIS > deadline) {
+                throw new IllegalStateException("等待缓存重建超时: " + key);
+            }
+            try {
+                Thread.sleep(REBUILD_RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            Object cached = getFromRedis(keyPrefix, key, type, logical);
+            if (cached != null) {
+                return cached == NULL_VALUE ? null : (R) cached;
+            }
+        }
+    }
+
+    /**
+     * 批量查询缓存: 本地缓存 -> 一次 pipeline 读取 Redis -> 一次批量查询数据库 -> 一次 pipeline 写回 Redis.
+     * 数据库中不存在的 id 写入空值缓存
+     * @param batchDbFallback 批量查询数据库: ids -> (id -> 数据), 不存在的 id 不放入结果
+     * @return 按 ids 的顺序排列, 不存在的 id 不出现在结果中
+     */
+    public <R, ID> List<R> multiGet(String keyPrefix, List<ID> ids, Type type,
+                                    Function<List<ID>, Map<ID, R>> batchDbFallback, Long time, TimeUnit unit) {
+        return multiGet(keyPrefix, ids, type, batchDbFallback, time, unit, false);
+    }
+
+    /**
+     * 批量查询逻辑过期缓存, 与 queryWithLogicalExpire 使用同一种缓存格式.
+     * 已逻辑过期的数据与 queryWithLogicalExpire 相同, 返回旧数据并逐个提交异步重建;
+     * 只有未命中和无法解码的数据批量查询数据库
+     */
+    public <R, ID> List<R> multiGetWithLogicalExpire(String keyPrefix, List<ID> ids, Type type,
+                                                     Function<List<ID>, Map<ID, R>> batchDbFallback, Long time, TimeUnit unit) {
+        return multiGet(keyPrefix, ids, type, batchDbFallback, time, unit, true);
+    }
+
+    private <R, ID> List<R> multiGet(String keyPrefix, List<ID> ids, Type type,
+                                     Function<List<ID>, Map<ID, R>> batchDbFallback, Long time, TimeUnit unit,
+                                     boolean logical) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        // id -> 数据, 空值缓存与数据库中不存在的 id 也放入, 值为 null
+        Map<ID, R> found = new HashMap<>(ids.size() * 2);
+        // 异步重建单个 id 时使用
+        Function<ID, R> dbFallback = id -> batchDbFallback.apply(Collections.singletonList(id)).get(id);
+        long now = System.currentTimeMillis();
+        // 1.查询本地缓存
+        List<ID> remoteIds = new ArrayList<>();
+        for (ID id : ids) {
+            if (found.containsKey(id)) {
+                continue;
+            }
+            if (!mightContain(keyPrefix, id)) {
+                cacheMetrics.record(keyPrefix, CacheMetrics.BLOOM_REJECT);
+                found.put(id, null);
+                continue;
+            }
+            Object local = getLocal(keyPrefix, keyPrefix + id);
+            if (local instanceof LogicalValue) {
+                LogicalValue value = (LogicalValue) local;
+                local = now < value.expireAt ? value.data : null;
+            }
+            if (local != null) {
+                found.put(id, cachedValue(keyPrefix, local, type, CacheMetrics.LOCAL_HIT));
+            } else {
+                remoteIds.add(id);
+            }
+        }
+        // 2.一次 pipeline 查询 Redis, 集群模式下按节点分组发送
+        List<ID> missIds = new ArrayList<>();
+        if (!remoteIds.isEmpty()) {
+            List<Object> values = bytesRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (ID id : remoteIds) {
+                    connection.get((keyPrefix + id).getBytes(StandardCharsets.UTF_8));
+                }
                 return null;
+            });
+            for (int i = 0; i < remoteIds.size(); i++) {
+                ID id = remoteIds.get(i);
+                String key = keyPrefix + id;
+                byte[] bytes = (byte[]) values.get(i);
+                if (bytes == null) {
+                    missIds.add(id);
+                    continue;
+                }
+                if (bytes.length == 0) {
+                    putLocal(keyPrefix, key, null);
+                    cacheMetrics.record(keyPrefix, CacheMetrics.NULL_HIT);
+                    found.put(id, null);
+                    continue;
+                }
+                R r = decode(key, bytes, type);
+                // 无法解码, 重新查询数据库
+                if (r == null) {
+                    missIds.add(id);
+                    continue;
+                }
+                long expireAt = codec.readExpireAt(bytes);
+                putLocal(keyPrefix, key, logical ? new LogicalValue(r, expireAt, codec.readRebuildCost(bytes)) : r);
+                if (logical && now >= expireAt) {
+                    // 已逻辑过期, 返回旧数据并异步重建, 同一个 key 只有一个请求查询数据库
+                    rebuildAsync(keyPrefix, key, true, id, dbFallback, time, unit);
+                    cacheMetrics.recordStale(keyPrefix, now - expireAt);
+                } else {
+                    cacheMetrics.record(keyPrefix, CacheMetrics.REDIS_HIT);
+                }
+                found.put(id, r);
+            }
+        }
+        // 3.一次批量查询数据库, 并用一次 pipeline 写回
+        if (!missIds.isEmpty()) {
+            for (int i = 0; i < missIds.size(); i++) {
+                cacheMetrics.record(keyPrefix, CacheMetrics.MISS);
+            }
+            long begin = System.currentTimeMillis();
+            Map<ID, R> loaded = batchDbFallback.apply(missIds);
+            cacheMetrics.recordRebuild(keyPrefix, System.currentTimeMillis() - begin);
+            writeBack(keyPrefix, missIds, loaded, time, unit, logical);
+            for (ID id : missIds) {
+                found.put(id, loaded.get(id));
+            }
+        }
+        // 4.按 ids 的顺序返回
+        List<R> list = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                list.add(r);
+            }
+        }
+        return list;
+    }
+
+    private <R, ID> void writeBack(String keyPrefix, List<ID> ids, Map<ID, R> loaded, Long time, TimeUnit unit,
+                                   boolean logical) {
+        long now = System.currentTimeMillis();
+        long nullMillis = TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL);
+        bytesRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ID id : ids) {
+                byte[] key = (keyPrefix + id).getBytes(StandardCharsets.UTF_8);
+                R r = loaded.get(id);
+                if (r == null) {
+                    connection.pSetEx(key, nullMillis, EMPTY);
+                } else if (logical) {
+                    connection.set(key, codec.encode(r, now + withJitter(unit.toMillis(time)), 0));
+                } else {
+                    connection.pSetEx(key, withJitter(unit.toMillis(time)), codec.encode(r, 0, 0));
+                }
+            }
+            return null;
+        });
+        for (ID id : ids) {
+            String key = keyPrefix + id;
+            R r = loaded.get(id);
+            if (logical && r != null) {
+                // 写回的过期时间带随机抖动, 本地缓存只需要一个近似值
+                putLocal(keyPrefix, key, new LogicalValue(r, now + unit.toMillis(time), 0));
+            } else {
+                putLocal(keyPrefix, key, r);
             }
-            // 6.存在，写入redis
-            this.set(key, r, time, unit);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }finally {
-            // 7.释放锁
-            unlock(lockKey);
         }
-        // 8.返回
+    }
+
+    /**
+     * 记录命中结果并转换缓存值, NULL_VALUE 记为空值命中
+     */
+    @SuppressWarnings("unchecked")
+    private <R> R cachedValue(String keyPrefix, Object cached, Type type, String result) {
+        if (cached == NULL_VALUE) {
+            cacheMetrics.record(keyPrefix, CacheMetrics.NULL_HIT);
+            return null;
+        }
+        cacheMetrics.record(keyPrefix, result);
+        return (R) cached;
+    }
+
+    /**
+     * 查询 Redis 并写入本地缓存
+     * @return 未命中返回 null, 命中空值返回 NULL_VALUE
+     */
+    private Object getFromRedis(String keyPrefix, String key, Type type) {
+        return getFromRedis(keyPrefix, key, type, false);
+    }
+
+    /**
+     * @param logical 逻辑过期缓存, 本地缓存保存数据与逻辑过期时间
+     */
+    private <R> Object getFromRedis(String keyPrefix, String key, Type type, boolean logical) {
+        byte[] bytes = bytesRedisTemplate.opsForValue().get(key);
+        if (bytes == null) {
+            return null;
+        }
+        if (bytes.length == 0) {
+            putLocal(keyPrefix, key, null);
+            return NULL_VALUE;
+        }
+        R r = decode(key, bytes, type);
+        if (r != null) {
+            putLocal(keyPrefix, key,
+                    logical ? new LogicalValue(r, codec.readExpireAt(bytes), codec.readRebuildCost(bytes)) : r);
+        }
         return r;
     }
 
+    /**
+     * 重建互斥锁按缓存前缀区分, 不同缓存中相同的 id 互不影响
+     */
+    private static <ID> String lockKey(String keyPrefix, ID id) {
+        return "lock:" + keyPrefix + id;
+    }
+
     private boolean tryLock(String key) {
         Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
         return BooleanUtil.isTrue(flag);
@@ -174,4 +809,19 @@ public class CacheClient {
     private void unlock(String key) {
         stringRedisTemplate.delete(key);
     }
+
+    /**
+     * 本地缓存中的逻辑过期数据
+     */
+    private static class LogicalValue {
+        private final Object data;
+        private final long expireAt;
+        private final long rebuildCost;
+
+        private LogicalValue(Object data, long expireAt, long rebuildCost) {
+            this.data = data;
+            this.expireAt = expireAt;
+            this.rebuildCost = rebuildCost;
+        }
+    }
 }
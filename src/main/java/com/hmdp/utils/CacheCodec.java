@@ -0,0 +1,36 @@
+package com.hmdp.utils;
+
+import java.lang.reflect.Type;
+
+/**
+ * CacheCodec CacheClient 的缓存值编解码. 空字节数组由 CacheClient 保留为空值标记, 编码结果不能为空
+**/
+public interface CacheCodec {
+
+    /**
+     * 编码缓存值
+     * @param expireAt 逻辑过期时间 (毫秒时间戳), 0 代表没有逻辑过期
+     * @param rebuildCost 重建耗时 (毫秒), 用于概率提前刷新, 0 代表未知
+     */
+    byte[] encode(Object value, long expireAt, long rebuildCost);
+
+    /**
+     * 读取逻辑过期时间, 不解码数据
+     * @return 逻辑过期时间 (毫秒时间戳), 没有逻辑过期时返回 0
+     * @throws IllegalArgumentException 数据格式与当前编码不一致
+     */
+    long readExpireAt(byte[] bytes);
+
+    /**
+     * 读取重建耗时, 不解码数据
+     * @return 重建耗时 (毫秒), 未记录时返回 0
+     */
+    long readRebuildCost(byte[] bytes);
+
+    /**
+     * 解码缓存值
+     * @param type 数据类型, 可以是 List&lt;Voucher&gt; 这样的泛型类型
+     * @throws IllegalArgumentException 数据格式与当前编码或类型结构不一致
+     */
+    <R> R decode(byte[] bytes, Type type);
+}
@@ -0,0 +1,28 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * CacheInvalidate 方法正常返回后删除缓存 prefix + key, 通过事务发件箱删除并延迟双删.
+ * 发件箱记录在方法的事务内写入, 事务提交后才删除; 调用方开启了外层事务时在外层事务提交后删除,
+ * 没有事务时方法返回后立即删除
+**/
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface CacheInvalidate {
+
+    /**
+     * 缓存 key 前缀
+     */
+    String prefix();
+
+    /**
+     * SpEL 表达式, 以方法参数名引用参数, 如 "#voucher.shopId". 为空时用 ':' 连接所有参数
+     */
+    String key() default "";
+}
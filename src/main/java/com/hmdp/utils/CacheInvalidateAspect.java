@@ -0,0 +1,33 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.TransactionConfig;
+import com.hmdp.service.ICacheOutboxService;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * CacheInvalidateAspect 处理 @CacheInvalidate. 位于事务代理内层, 发件箱记录随方法的事务一起提交,
+ * 事务提交之后才删除缓存; 事务回滚时记录和删除都不会发生
+ **/
+@Aspect
+@Component
+@Order(TransactionConfig.TRANSACTION_ORDER + 1)
+public class CacheInvalidateAspect {
+
+    @Resource
+    private ICacheOutboxService cacheOutboxService;
+
+    @Resource
+    private CacheKeyEvaluator keyEvaluator;
+
+    @AfterReturning("@annotation(cacheInvalidate)")
+    public void afterReturning(JoinPoint joinPoint, CacheInvalidate cacheInvalidate) {
+        String id = keyEvaluator.key(cacheInvalidate.key(), keyEvaluator.targetMethod(joinPoint), joinPoint);
+        cacheOutboxService.evictAfterCommit(cacheInvalidate.prefix(), id);
+    }
+}
@@ -0,0 +1,54 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CacheKeyEvaluator 按 @Cached / @CacheInvalidate 的 SpEL 表达式从方法参数计算缓存 key
+ **/
+@Component
+public class CacheKeyEvaluator {
+
+    private final SpelExpressionParser parser = new SpelExpressionParser();
+
+    private final ParameterNameDiscoverer parameterNameDiscoverer = new DefaultParameterNameDiscoverer();
+
+    /**
+     * SpEL 表达式 -> 解析结果
+     */
+    private final Map<String, Expression> expressions = new ConcurrentHashMap<>();
+
+    /**
+     * 实现类上的方法, 接口方法没有参数名
+     */
+    public Method targetMethod(JoinPoint joinPoint) {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        return AopUtils.getMostSpecificMethod(method, joinPoint.getTarget().getClass());
+    }
+
+    /**
+     * 表达式为空时用 ':' 连接所有参数
+     */
+    public String key(String spel, Method method, JoinPoint joinPoint) {
+        Object[] args = joinPoint.getArgs();
+        if (StrUtil.isBlank(spel)) {
+            return StrUtil.join(":", args);
+        }
+        Expression expression = expressions.computeIfAbsent(spel, parser::parseExpression);
+        MethodBasedEvaluationContext context =
+                new MethodBasedEvaluationContext(null, method, args, parameterNameDiscoverer);
+        return String.valueOf(expression.getValue(context));
+    }
+}
@@ -0,0 +1,225 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.CacheStatsDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CacheMetrics 按 key 前缀统计缓存命中、未命中、重建耗时与锁竞争, 通过 actuator 的 /actuator/metrics 暴露,
+ * 同时汇总为 /cache/stats 的简要面板
+**/
+@Component
+public class CacheMetrics {
+
+    /**
+     * 缓存查询结果计数, 按 prefix 与 result 打标签
+     */
+    public static final String REQUESTS = "cache.requests";
+
+    /**
+     * 查询数据库重建缓存的耗时
+     */
+    public static final String REBUILD = "cache.rebuild";
+
+    /**
+     * 返回过期数据时数据已过期的时长 (毫秒)
+     */
+    public static final String STALE_AGE = "cache.stale.age";
+
+    /**
+     * 重建互斥锁的获取结果计数
+     */
+    public static final String LOCK = "cache.lock";
+
+    /**
+     * 异步重建任务的提交结果计数
+     */
+    public static final String SCHEDULE = "cache.rebuild.schedule";
+
+    /**
+     * 本地缓存命中
+     */
+    public static final String LOCAL_HIT = "local_hit";
+    /**
+     * Redis 命中
+     */
+    public static final String REDIS_HIT = "redis_hit";
+    /**
+     * 命中空值缓存
+     */
+    public static final String NULL_HIT = "null_hit";
+    /**
+     * 未命中, 需要查询数据库
+     */
+    public static final String MISS = "miss";
+    /**
+     * 逻辑过期后返回旧数据
+     */
+    public static final String STALE = "stale";
+    /**
+     * 被布隆过滤器拦截
+     */
+    public static final String BLOOM_REJECT = "bloom_reject";
+
+    /**
+     * 重建任务进入队列
+     */
+    public static final String QUEUED = "queued";
+    /**
+     * 同一个 key 已在排队或执行中
+     */
+    public static final String DEDUPED = "deduped";
+    /**
+     * 队列已满, 继续返回旧数据
+     */
+    public static final String REJECTED = "rejected";
+    /**
+     * 重建任务执行异常
+     */
+    public static final String FAILED = "failed";
+
+    private static final String LOCK_ACQUIRED = "acquired";
+    private static final String LOCK_CONTENDED = "contended";
+
+    private final MeterRegistry registry;
+
+    public CacheMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * 记录一次缓存查询结果
+     */
+    public void record(String prefix, String result) {
+        registry.counter(REQUESTS, "prefix", prefix, "result", result).increment();
+    }
+
+    /**
+     * 记录一次返回过期数据
+     * @param age 数据已过期的时长 (毫秒)
+     */
+    public void recordStale(String prefix, long age) {
+        record(prefix, STALE);
+        DistributionSummary.builder(STALE_AGE)
+                .baseUnit("milliseconds")
+                .tag("prefix", prefix)
+                .register(registry)
+                .record(Math.max(age, 0));
+    }
+
+    /**
+     * 记录一次缓存重建耗时
+     */
+    public void recordRebuild(String prefix, long millis) {
+        rebuildTimer(prefix).record(millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 记录一次重建互斥锁的获取结果, 获取失败代表其他请求或实例正在重建
+     */
+    public void recordLock(String prefix, boolean acquired) {
+        registry.counter(LOCK, "prefix", prefix, "result", acquired ? LOCK_ACQUIRED : LOCK_CONTENDED).increment();
+    }
+
+    /**
+     * 记录一次异步重建任务的提交或执行结果
+     */
+    public void recordSchedule(String prefix, String result) {
+        registry.counter(SCHEDULE, "prefix", prefix, "result", result).increment();
+    }
+
+    /**
+     * 监控重建线程池的排队任务数与活跃线程数
+     */
+    public void monitorExecutor(String name, ThreadPoolExecutor executor) {
+        Gauge.builder("cache.rebuild.queue", executor, e -> e.getQueue().size())
+                .tag("pool", name)
+                .register(registry);
+        Gauge.builder("cache.rebuild.active", executor, ThreadPoolExecutor::getActiveCount)
+                .tag("pool", name)
+                .register(registry);
+    }
+
+    /**
+     * 按前缀汇总当前的统计数据
+     */
+    public List<CacheStatsDTO> snapshot() {
+        Map<String, CacheStatsDTO> stats = new TreeMap<>();
+        // 1.查询结果计数
+        for (Counter counter : registry.find(REQUESTS).counters()) {
+            CacheStatsDTO dto = stats.computeIfAbsent(counter.getId().getTag("prefix"), CacheStatsDTO::new);
+            long count = (long) counter.count();
+            String result = counter.getId().getTag("result");
+            if (LOCAL_HIT.equals(result)) {
+                dto.setLocalHits(count);
+            } else if (REDIS_HIT.equals(result)) {
+                dto.setRedisHits(count);
+            } else if (NULL_HIT.equals(result)) {
+                dto.setNullHits(count);
+            } else if (MISS.equals(result)) {
+                dto.setMisses(count);
+            } else if (STALE.equals(result)) {
+                dto.setStaleServed(count);
+            } else if (BLOOM_REJECT.equals(result)) {
+                dto.setBloomRejects(count);
+            }
+        }
+        // 2.锁竞争
+        for (Counter counter : registry.find(LOCK).counters()) {
+            CacheStatsDTO dto = stats.computeIfAbsent(counter.getId().getTag("prefix"), CacheStatsDTO::new);
+            if (LOCK_CONTENDED.equals(counter.getId().getTag("result"))) {
+                dto.setLockContended((long) counter.count());
+            } else {
+                dto.setLockAcquired((long) counter.count());
+            }
+        }
+        // 3.异步重建调度
+        for (Counter counter : registry.find(SCHEDULE).counters()) {
+            CacheStatsDTO dto = stats.computeIfAbsent(counter.getId().getTag("prefix"), CacheStatsDTO::new);
+            long count = (long) counter.count();
+            String result = counter.getId().getTag("result");
+            if (DEDUPED.equals(result)) {
+                dto.setRebuildDeduped(count);
+            } else if (REJECTED.equals(result)) {
+                dto.setRebuildRejected(count);
+            } else if (FAILED.equals(result)) {
+                dto.setRebuildFailed(count);
+            }
+        }
+        // 4.重建耗时
+        for (Timer timer : registry.find(REBUILD).timers()) {
+            CacheStatsDTO dto = stats.computeIfAbsent(timer.getId().getTag("prefix"), CacheStatsDTO::new);
+            dto.setRebuilds(timer.count());
+            dto.setRebuildMeanMillis(timer.mean(TimeUnit.MILLISECONDS));
+            dto.setRebuildMaxMillis(timer.max(TimeUnit.MILLISECONDS));
+        }
+        // 5.计算命中率
+        List<CacheStatsDTO> list = new ArrayList<>(stats.values());
+        for (CacheStatsDTO dto : list) {
+            long hits = dto.getLocalHits() + dto.getRedisHits();
+            long total = hits + dto.getNullHits() + dto.getMisses() + dto.getStaleServed();
+            dto.setHitRatio(total == 0 ? 0 : (double) (hits + dto.getStaleServed()) / total);
+            dto.setNullHitRatio(total == 0 ? 0 : (double) dto.getNullHits() / total);
+        }
+        return list;
+    }
+
+    private Timer rebuildTimer(String prefix) {
+        return Timer.builder(REBUILD)
+                .tag("prefix", prefix)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
@@ -0,0 +1,158 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CacheRebuildScheduler 所有缓存异步重建共用的调度器.
+ * 同一个 key 排队或执行中时不再重复提交; 排队数达到上限时拒绝提交, 调用方继续返回过期数据;
+ * 已逻辑过期的 key 优先于提前刷新的 key, 同类按热度 (访问次数估计) 降序执行; 关闭时等待排队的任务执行完
+**/
+@Slf4j
+@Component
+public class CacheRebuildScheduler {
+
+    /**
+     * 重建线程数
+     */
+    @Value("${hmdp.cache.rebuild.threads:10}")
+    private int threads;
+
+    /**
+     * 排队任务数上限
+     */
+    @Value("${hmdp.cache.rebuild.queue-capacity:1000}")
+    private int queueCapacity;
+
+    /**
+     * 关闭时等待排队任务执行完的最长时间 (毫秒)
+     */
+    @Value("${hmdp.cache.rebuild.drain-timeout:5000}")
+    private long drainTimeoutMillis;
+
+    private final CacheMetrics cacheMetrics;
+
+    /**
+     * 排队或执行中的 key
+     */
+    private final Map<String, RebuildTask> pending = new ConcurrentHashMap<>();
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     * 提交顺序, 优先级相同时先提交先执行
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    private ThreadPoolExecutor executor;
+
+    public CacheRebuildScheduler(CacheMetrics cacheMetrics) {
+        this.cacheMetrics = cacheMetrics;
+    }
+
+    @PostConstruct
+    private void init() {
+        // 队列本身不限长度, 容量由 queued 计数控制; 只能用 execute 提交, submit 包装后的任务无法比较优先级
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>());
+        cacheMetrics.monitorExecutor("cache-rebuild", executor);
+    }
+
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        // 不再接受新任务, 等待排队的任务执行完
+        executor.shutdown();
+        if (!executor.awaitTermination(drainTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            log.warn("缓存重建任务未能在 {} ms 内执行完, 剩余 {} 个", drainTimeoutMillis, executor.getQueue().size());
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 提交重建任务
+     * @param keyPrefix 统计用的 key 前缀
+     * @param key 缓存 key, 用于去重
+     * @param expired 是否已逻辑过期, 已过期的优先执行
+     * @param hits 热度, 越大越先执行
+     * @param task 重建任务, 异常会被记录, 不会影响其他任务
+     * @return false 代表 key 已在排队或执行中, 或者队列已满、调度器已关闭, 调用方继续使用旧数据
+     */
+    public boolean submit(String keyPrefix, String key, boolean expired, long hits, Runnable task) {
+        RebuildTask rebuildTask = new RebuildTask(keyPrefix, key, expired, hits, sequence.incrementAndGet(), task);
+        // 1.去重
+        if (pending.putIfAbsent(key, rebuildTask) != null) {
+            cacheMetrics.recordSchedule(keyPrefix, CacheMetrics.DEDUPED);
+            return false;
+        }
+        // 2.背压, 队列已满或正在关闭
+        if (queued.incrementAndGet() > queueCapacity || executor.isShutdown()) {
+            queued.decrementAndGet();
+            pending.remove(key, rebuildTask);
+            cacheMetrics.recordSchedule(keyPrefix, CacheMetrics.REJECTED);
+            return false;
+        }
+        try {
+            executor.execute(rebuildTask);
+        } catch (RuntimeException e) {
+            // 提交时恰好关闭
+            queued.decrementAndGet();
+            pending.remove(key, rebuildTask);
+            cacheMetrics.recordSchedule(keyPrefix, CacheMetrics.REJECTED);
+            return false;
+        }
+        cacheMetrics.recordSchedule(keyPrefix, CacheMetrics.QUEUED);
+        return true;
+    }
+
+    private class RebuildTask implements Runnable, Comparable<RebuildTask> {
+        private final String keyPrefix;
+        private final String key;
+        private final boolean expired;
+        private final long hits;
+        private final long seq;
+        private final Runnable task;
+
+        private RebuildTask(String keyPrefix, String key, boolean expired, long hits, long seq, Runnable task) {
+            this.keyPrefix = keyPrefix;
+            this.key = key;
+            this.expired = expired;
+            this.hits = hits;
+            this.seq = seq;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            queued.decrementAndGet();
+            try {
+                task.run();
+            } catch (Exception e) {
+                cacheMetrics.recordSchedule(keyPrefix, CacheMetrics.FAILED);
+                log.error("缓存重建失败: {}", key, e);
+            } finally {
+                pending.remove(key, this);
+            }
+        }
+
+        @Override
+        public int compareTo(RebuildTask o) {
+            if (expired != o.expired) {
+                return expired ? -1 : 1;
+            }
+            if (hits != o.hits) {
+                return Long.compare(o.hits, hits);
+            }
+            return Long.compare(seq, o.seq);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.hmdp.utils;
+
+/**
+ * CacheStrategy @Cached 使用的 CacheClient 查询方式
+**/
+public enum CacheStrategy {
+    /**
+     * 缓存空值解决缓存穿透, 对应 queryWithPassThrough
+     */
+    PASS_THROUGH,
+    /**
+     * 互斥锁重建解决缓存击穿, 对应 queryWithMutex
+     */
+    MUTEX,
+    /**
+     * 逻辑过期, 过期后返回旧数据并异步重建, 未命中时互斥锁同步重建, 对应 queryWithLogicalExpire
+     */
+    LOGICAL_EXPIRE
+}
@@ -0,0 +1,268 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.map.MapUtil;
+import com.google.common.util.concurrent.RateLimiter;
+import com.hmdp.dto.CacheWarmUpDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static com.hmdp.utils.RedisConstants.CACHE_WARM_UP_KEY;
+
+/**
+ * CacheWarmer 把数据库中的数据按 id 升序分页 (keyset) 写入逻辑过期缓存.
+ * 数据库按 rowsPerSecond 限流顺序读取, 每一页交给有界线程池用 pipeline 批量写入 Redis;
+ * 按顺序完成的页把游标 (lastId) 与进度写入 Redis, 中断后再次启动从游标继续. 同一时间只有一个实例执行预热
+**/
+@Slf4j
+public class CacheWarmer<R> {
+
+    private static final String RUNNING = "RUNNING";
+    private static final String DONE = "DONE";
+    private static final String FAILED = "FAILED";
+    private static final String IDLE = "IDLE";
+
+    private final String name;
+
+    private final String keyPrefix;
+
+    /**
+     * 按 id 升序分页加载: (lastId, limit) -> 数据
+     */
+    private final BiFunction<Long, Integer, List<R>> pageLoader;
+
+    private final Function<R, Long> idGetter;
+
+    /**
+     * 查询数据总数, 用于估算进度
+     */
+    private final Supplier<Long> totalCounter;
+
+    private final CacheClient cacheClient;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedissonClient redissonClient;
+
+    private final int batchSize;
+
+    private final int parallelism;
+
+    private final RateLimiter rateLimiter;
+
+    private final long time;
+
+    private final TimeUnit unit;
+
+    private final ExecutorService coordinator = Executors.newSingleThreadExecutor();
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile boolean stopped;
+
+    public CacheWarmer(String name, String keyPrefix,
+                       BiFunction<Long, Integer, List<R>> pageLoader,
+                       Function<R, Long> idGetter,
+                       Supplier<Long> totalCounter,
+                       CacheClient cacheClient,
+                       StringRedisTemplate stringRedisTemplate,
+                       RedissonClient redissonClient,
+                       int batchSize, int parallelism, double rowsPerSecond,
+                       long time, TimeUnit unit) {
+        this.name = name;
+        this.keyPrefix = keyPrefix;
+        this.pageLoader = pageLoader;
+        this.idGetter = idGetter;
+        this.totalCounter = totalCounter;
+        this.cacheClient = cacheClient;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redissonClient = redissonClient;
+        this.batchSize = batchSize;
+        this.parallelism = parallelism;
+        this.rateLimiter = RateLimiter.create(rowsPerSecond);
+        this.time = time;
+        this.unit = unit;
+    }
+
+    /**
+     * 异步执行预热
+     * @param restart true 从头开始; false 从上次中断的游标继续, 上次已完成则不再执行
+     * @return 当前实例已在执行时返回 false
+     */
+    public boolean start(boolean restart) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        coordinator.execute(() -> {
+            try {
+                run(restart);
+            } finally {
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    public void stop() {
+        stopped = true;
+        coordinator.shutdownNow();
+    }
+
+    /**
+     * 查询预热进度
+     */
+    public CacheWarmUpDTO progress() {
+        Map<Object, Object> state = stringRedisTemplate.opsForHash().entries(stateKey());
+        CacheWarmUpDTO dto = new CacheWarmUpDTO();
+        dto.setName(name);
+        dto.setStatus(MapUtil.getStr(state, "status", IDLE));
+        dto.setLastId(MapUtil.getLong(state, "lastId"));
+        dto.setWritten(MapUtil.getLong(state, "written"));
+        dto.setTotal(MapUtil.getLong(state, "total"));
+        dto.setStartedAt(MapUtil.getLong(state, "startedAt"));
+        dto.setFinishedAt(MapUtil.getLong(state, "finishedAt"));
+        return dto;
+    }
+
+    private void run(boolean restart) {
+        // 1.获取分布式锁, 其他实例正在预热时直接返回
+        RLock lock = redissonClient.getLock("lock:" + stateKey());
+        if (!lock.tryLock()) {
+            log.info("缓存预热 {} 正在其他实例上执行", name);
+            return;
+        }
+        try {
+            // 2.读取游标
+            CacheWarmUpDTO progress = progress();
+            if (!restart && DONE.equals(progress.getStatus())) {
+                return;
+            }
+            boolean resume = !restart && (RUNNING.equals(progress.getStatus()) || FAILED.equals(progress.getStatus()));
+            long lastId = resume && progress.getLastId() != null ? progress.getLastId() : 0L;
+            long written = resume && progress.getWritten() != null ? progress.getWritten() : 0L;
+            Map<String, String> state = new HashMap<>();
+            state.put("status", RUNNING);
+            state.put("lastId", String.valueOf(lastId));
+            state.put("written", String.valueOf(written));
+            state.put("total", String.valueOf(totalCounter.get()));
+            state.put("startedAt", String.valueOf(System.currentTimeMillis()));
+            stringRedisTemplate.opsForHash().putAll(stateKey(), state);
+            stringRedisTemplate.opsForHash().delete(stateKey(), "finishedAt");
+            log.info("缓存预热 {} 开始, lastId = {}", name, lastId);
+            // 3.分页读取并并行写入
+            boolean completed = warmUp(lastId, written);
+            // 4.记录结果, 被停止时保持 RUNNING, 下次启动继续
+            if (completed) {
+                finish(DONE);
+                log.info("缓存预热 {} 完成", name);
+            }
+        } catch (Exception e) {
+            log.error("缓存预热 {} 异常", name, e);
+            finish(FAILED);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 读取完所有数据返回 true, 被停止返回 false
+     */
+    private boolean warmUp(long lastId, long written) throws Exception {
+        // 队列满时由协调线程自己写入, 限制内存中等待写入的页数
+        ThreadPoolExecutor writers = new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(parallelism), new ThreadPoolExecutor.CallerRunsPolicy());
+        // 按提交顺序等待写入完成的页, 只有之前的页都写入后才推进游标
+        Deque<Page> pages = new ArrayDeque<>();
+        try {
+            long cursor = lastId;
+            while (!stopped && !Thread.currentThread().isInterrupted()) {
+                // 3.1.限流读取数据库
+                rateLimiter.acquire(batchSize);
+                List<R> list = pageLoader.apply(cursor, batchSize);
+                if (list.isEmpty()) {
+                    break;
+                }
+                cursor = idGetter.apply(list.get(list.size() - 1));
+                // 3.2.提交批量写入
+                Map<String, Object> entries = new LinkedHashMap<>(list.size() * 2);
+                for (R r : list) {
+                    entries.put(keyPrefix + idGetter.apply(r), r);
+                }
+                pages.addLast(new Page(cursor, list.size(),
+                        writers.submit(() -> cacheClient.setWithLogicalExpire(entries, time, unit))));
+                // 3.3.推进已完成的游标
+                written = commit(pages, written, false);
+                if (list.size() < batchSize) {
+                    break;
+                }
+            }
+            commit(pages, written, true);
+            return !stopped && !Thread.currentThread().isInterrupted();
+        } finally {
+            writers.shutdownNow();
+        }
+    }
+
+    /**
+     * 按顺序取出已完成的页, 把最后一个完成页的 id 写入游标
+     * @param await 是否等待所有页写入完成
+     */
+    private long commit(Deque<Page> pages, long written, boolean await) throws Exception {
+        Page done = null;
+        while (!pages.isEmpty() && (await || pages.peekFirst().future.isDone())) {
+            Page page = pages.pollFirst();
+            // 写入失败时抛出异常, 游标停在失败页之前
+            page.future.get();
+            written += page.size;
+            done = page;
+        }
+        if (done != null) {
+            Map<String, String> state = new HashMap<>();
+            state.put("lastId", String.valueOf(done.lastId));
+            state.put("written", String.valueOf(written));
+            stringRedisTemplate.opsForHash().putAll(stateKey(), state);
+        }
+        return written;
+    }
+
+    private void finish(String status) {
+        Map<String, String> state = new HashMap<>();
+        state.put("status", status);
+        state.put("finishedAt", String.valueOf(System.currentTimeMillis()));
+        stringRedisTemplate.opsForHash().putAll(stateKey(), state);
+    }
+
+    private String stateKey() {
+        return CACHE_WARM_UP_KEY + name;
+    }
+
+    private static class Page {
+        private final long lastId;
+        private final int size;
+        private final Future<?> future;
+
+        private Page(long lastId, int size, Future<?> future) {
+            this.lastId = lastId;
+            this.size = size;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cached 方法返回值通过 CacheClient 缓存, 缓存 key 为 prefix + key. 方法体即数据库查询,
+ * 只有在缓存未命中时执行. 只对通过 Spring 代理的外部调用生效
+**/
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Cached {
+
+    /**
+     * 缓存 key 前缀
+     */
+    String prefix();
+
+    /**
+     * SpEL 表达式, 以方法参数名引用参数, 如 "#shopId". 为空时用 ':' 连接所有参数
+     */
+    String key() default "";
+
+    CacheStrategy strategy() default CacheStrategy.PASS_THROUGH;
+
+    /**
+     * 过期时间, LOGICAL_EXPIRE 时为逻辑过期时间
+     */
+    long ttl();
+
+    TimeUnit unit() default TimeUnit.MINUTES;
+
+    /**
+     * 方法返回 null 时是否写入空值缓存
+     */
+    boolean cacheNull() default true;
+}
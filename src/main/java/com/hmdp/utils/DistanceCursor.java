@@ -0,0 +1,71 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.util.StrUtil;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * DistanceCursor 附近店铺按距离翻页的游标: 上一页最后一个店铺的距离与 id, 以及计算距离的来源, 对客户端不透明.
+ * 本地索引与 Redis GEO 的坐标精度不同, 同一店铺的距离略有差异, 翻页必须沿用产生游标的来源
+**/
+public class DistanceCursor {
+
+    private final double distance;
+
+    private final long id;
+
+    private final Source source;
+
+    public DistanceCursor(double distance, long id, Source source) {
+        this.distance = distance;
+        this.id = id;
+        this.source = source;
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public Source getSource() {
+        return source;
+    }
+
+    public String encode() {
+        return Base64.encodeUrlSafe(distance + ":" + id + ":" + source.name());
+    }
+
+    /**
+     * @return 游标为空或格式错误时返回 null
+     */
+    public static DistanceCursor decode(String cursor) {
+        if (StrUtil.isBlank(cursor)) {
+            return null;
+        }
+        try {
+            String[] parts = Base64.decodeStr(cursor, StandardCharsets.UTF_8).split(":");
+            return new DistanceCursor(Double.parseDouble(parts[0]), Long.parseLong(parts[1]),
+                    Source.valueOf(parts[2]));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 距离的来源
+     */
+    public enum Source {
+        /**
+         * 本地网格索引, 坐标取自数据库
+         */
+        LOCAL,
+        /**
+         * Redis GEO, 坐标取自 geohash
+         */
+        CELL
+    }
+}
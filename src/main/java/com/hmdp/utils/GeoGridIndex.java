@@ -0,0 +1,519 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * GeoGridIndex 进程内的经纬度网格索引, 按分组 (店铺类型) 划分, 每组把坐标按 cellDegrees 大小的网格分桶.
+ * 每个网格按列保存 id、坐标、均价、评分与营业时间的数组, 写入时复制整个网格 (copy-on-write), 查询不加锁;
+ * 查询时属性条件与距离在同一次遍历中判断, 先比较属性再计算距离.
+ * 距离计算与 Redis GEO 相同 (haversine, 地球半径 6372797.560856 米), 与 GEOSEARCH 的结果一致
+**/
+public class GeoGridIndex {
+
+    /**
+     * 与 Redis GEO 相同的地球半径 (米)
+     */
+    private static final double EARTH_RADIUS = 6372797.560856;
+
+    /**
+     * 每一纬度的长度 (米)
+     */
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * EARTH_RADIUS;
+
+    /**
+     * 按距离、id 升序
+     */
+    public static final Comparator<GeoHit> DISTANCE_ORDER =
+            Comparator.comparingDouble(GeoHit::getDistance).thenComparingLong(GeoHit::getId);
+
+    /**
+     * 按评分降序, 距离、id 升序
+     */
+    private static final Comparator<GeoHit> SCORE_ORDER = Comparator.comparingInt(GeoHit::getScore).reversed()
+            .thenComparing(DISTANCE_ORDER);
+
+    private final double cellDegrees;
+
+    /**
+     * 分组 -> (网格 -> 网格内的点)
+     */
+    private final Map<Long, Map<Long, Cell>> groups = new ConcurrentHashMap<>();
+
+    /**
+     * id -> 点, 用于移动与删除
+     */
+    private final Map<Long, GeoPoint> positions = new ConcurrentHashMap<>();
+
+    /**
+     * @param cellDegrees 网格边长 (度), 0.01 度约 1.1 公里, 查询半径内的网格数约为 (2r / 边长)^2
+     */
+    public GeoGridIndex(double cellDegrees) {
+        this.cellDegrees = cellDegrees;
+    }
+
+    /**
+     * 新增或修改一个点. 写入之间串行, 查询不受影响
+     */
+    public synchronized void put(GeoPoint point) {
+        GeoPoint old = positions.put(point.id, point);
+        if (old != null) {
+            if (old.equals(point)) {
+                return;
+            }
+            removeFromCell(old);
+        }
+        groups.computeIfAbsent(point.group, g -> new ConcurrentHashMap<>())
+                .compute(cellKey(point.x, point.y), (k, cell) -> Cell.merge(cell, Collections.singletonList(point)));
+    }
+
+    public synchronized void remove(long id) {
+        GeoPoint old = positions.remove(id);
+        if (old != null) {
+            removeFromCell(old);
+        }
+    }
+
+    /**
+     * 批量写入, 同一个网格的点只复制一次网格, 用于全量构建
+     */
+    public synchronized void putAll(Collection<GeoPoint> points) {
+        Map<Long, Map<Long, List<GeoPoint>>> buckets = new HashMap<>();
+        for (GeoPoint point : points) {
+            remove(point.id);
+            positions.put(point.id, point);
+            buckets.computeIfAbsent(point.group, g -> new HashMap<>())
+                    .computeIfAbsent(cellKey(point.x, point.y), k -> new ArrayList<>())
+                    .add(point);
+        }
+        buckets.forEach((group, cells) -> {
+            Map<Long, Cell> groupCells = groups.computeIfAbsent(group, g -> new ConcurrentHashMap<>());
+            cells.forEach((key, list) -> groupCells.compute(key, (k, cell) -> Cell.merge(cell, list)));
+        });
+    }
+
+    public int size() {
+        return positions.size();
+    }
+
+    /**
+     * 查询 (x, y) 半径 radius 米内最近的 limit 个点
+     * @return 按距离、id 升序
+     */
+    public List<GeoHit> search(long group, double x, double y, double radius, int limit) {
+        return search(group, x, y, radius, limit, -1, 0);
+    }
+
+    /**
+     * 查询 (x, y) 半径 radius 米内排在 (afterDistance, afterId) 之后最近的 limit 个点, 用于按游标翻页.
+     * 完全位于 afterDistance 以内的网格直接跳过, 翻页的代价与页码无关
+     * @param afterDistance 上一页最后一个点的距离, 小于 0 代表第一页
+     * @param afterId 上一页最后一个点的 id, 距离相同时按 id 排序
+     * @return 按距离、id 升序
+     */
+    public List<GeoHit> search(long group, double x, double y, double radius, int limit,
+                               double afterDistance, long afterId) {
+        return search(group, x, y, radius, limit, afterDistance, afterId, Filter.NONE, false);
+    }
+
+    /**
+     * 查询 (x, y) 半径 radius 米内满足 filter 的 limit 个点
+     * @param byScore true 按评分降序、距离升序; false 按距离升序 (最近的 limit 个)
+     */
+    public List<GeoHit> search(long group, double x, double y, double radius, int limit,
+                               Filter filter, boolean byScore) {
+        return search(group, x, y, radius, limit, -1, 0, filter, byScore);
+    }
+
+    private List<GeoHit> search(long group, double x, double y, double radius, int limit,
+                                double afterDistance, long afterId, Filter filter, boolean byScore) {
+        Map<Long, Cell> cells = groups.get(group);
+        if (cells == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        // 1. 计算半径覆盖的网格范围, 经度方向按范围内离赤道最远的纬度计算
+        double dLat = radius / METERS_PER_DEGREE;
+        double maxLat = Math.min(Math.max(Math.abs(y - dLat), Math.abs(y + dLat)), 89.9);
+        double cos = Math.cos(Math.toRadians(maxLat));
+        double dLon = Math.min(radius / (METERS_PER_DEGREE * cos), 180);
+        long minRow = row(y - dLat);
+        long maxRow = row(y + dLat);
+        long minCol = col(x - dLon);
+        long maxCol = col(x + dLon);
+        long centerRow = row(y);
+        long centerCol = col(x);
+        long rings = Math.max(Math.max(centerRow - minRow, maxRow - centerRow),
+                Math.max(centerCol - minCol, maxCol - centerCol));
+        // 网格较短一边的长度 (米), 第 ring 圈内的点距离查询点至少 (ring - 1) * cellMeters
+        double cellMeters = cellDegrees * METERS_PER_DEGREE * cos;
+        // 网格对角线长度 (米) 的上界, 第 ring 圈内的点距离查询点至多 (ring + 1) * cellDiagonal, 留 1% 余量
+        double cellDiagonal = cellDegrees * METERS_PER_DEGREE * Math.sqrt(2) * 1.01;
+        // 2. 从查询点所在网格一圈一圈向外遍历, 用堆保留排在最前的 limit 个点;
+        //    按距离排序时, 已找满且外圈不可能更近即结束; 按评分排序时遍历半径内所有网格
+        Comparator<GeoHit> order = byScore ? SCORE_ORDER : DISTANCE_ORDER;
+        PriorityQueue<GeoHit> top = new PriorityQueue<>(Math.min(limit, 1024), order.reversed());
+        Scan scan = new Scan(x, y, radius, limit, afterDistance, afterId, filter, byScore, order, top);
+        for (long ring = 0; ring <= rings; ring++) {
+            if (!byScore && top.size() == limit && (ring - 1) * cellMeters > top.peek().getDistance()) {
+                break;
+            }
+            if ((ring + 1) * cellDiagonal < afterDistance) {
+                // 这一圈都在上一页之前
+                continue;
+            }
+            for (long row = Math.max(centerRow - ring, minRow); row <= Math.min(centerRow + ring, maxRow); row++) {
+                // 第一行与最后一行遍历整行, 中间的行只有两端的网格
+                boolean edge = row == centerRow - ring || row == centerRow + ring;
+                long step = edge || ring == 0 ? 1 : 2 * ring;
+                for (long col = centerCol - ring; col <= centerCol + ring; col += step) {
+                    if (col < minCol || col > maxCol) {
+                        continue;
+                    }
+                    Cell cell = cells.get(cellKey(row, col));
+                    if (cell != null) {
+                        scan.accept(cell);
+                    }
+                }
+            }
+        }
+        // 3. 按顺序返回
+        List<GeoHit> hits = new ArrayList<>(top);
+        hits.sort(order);
+        return hits;
+    }
+
+    /**
+     * 两点间的距离 (米), 与 Redis GEODIST 相同
+     */
+    public static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2.0 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    private void removeFromCell(GeoPoint point) {
+        Map<Long, Cell> cells = groups.get(point.group);
+        if (cells != null) {
+            cells.computeIfPresent(cellKey(point.x, point.y), (k, cell) -> cell.remove(point.id));
+        }
+    }
+
+    private long row(double y) {
+        return (long) Math.floor((y + 90) / cellDegrees);
+    }
+
+    private long col(double x) {
+        return (long) Math.floor((x + 180) / cellDegrees);
+    }
+
+    private long cellKey(double x, double y) {
+        return cellKey(row(y), col(x));
+    }
+
+    private static long cellKey(long row, long col) {
+        return row << 32 | (col & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 一次查询的遍历状态
+     */
+    private static class Scan {
+        private final double x;
+        private final double y;
+        private final double radius;
+        private final int limit;
+        private final double afterDistance;
+        private final long afterId;
+        private final Filter filter;
+        private final boolean byScore;
+        private final Comparator<GeoHit> order;
+        private final PriorityQueue<GeoHit> top;
+
+        private Scan(double x, double y, double radius, int limit, double afterDistance, long afterId,
+                     Filter filter, boolean byScore, Comparator<GeoHit> order, PriorityQueue<GeoHit> top) {
+            this.x = x;
+            this.y = y;
+            this.radius = radius;
+            this.limit = limit;
+            this.afterDistance = afterDistance;
+            this.afterId = afterId;
+            this.filter = filter;
+            this.byScore = byScore;
+            this.order = order;
+            this.top = top;
+        }
+
+        void accept(Cell cell) {
+            for (int i = 0; i < cell.ids.length; i++) {
+                // 1. 属性条件, 只比较数组中的整数
+                if (!filter.matches(cell, i)) {
+                    continue;
+                }
+                // 2. 按评分排序且已找满时, 评分更低的不可能进入结果
+                boolean full = top.size() == limit;
+                if (byScore && full && cell.scores[i] < top.peek().getScore()) {
+                    continue;
+                }
+                // 3. 球面距离不小于纬度差对应的距离, 先用纬度差排除
+                double bound = full && !byScore ? top.peek().getDistance() : radius;
+                if (Math.abs(cell.ys[i] - y) * METERS_PER_DEGREE > bound) {
+                    continue;
+                }
+                double distance = distance(x, y, cell.xs[i], cell.ys[i]);
+                if (distance > bound || distance < afterDistance
+                        || distance == afterDistance && cell.ids[i] <= afterId) {
+                    continue;
+                }
+                GeoHit hit = new GeoHit(cell.ids[i], distance, cell.scores[i]);
+                if (full) {
+                    if (order.compare(hit, top.peek()) >= 0) {
+                        continue;
+                    }
+                    top.poll();
+                }
+                top.add(hit);
+            }
+        }
+    }
+
+    /**
+     * 属性条件, 未设置的条件为 -1
+     */
+    public static class Filter {
+
+        public static final Filter NONE = new Filter(-1, -1, -1, -1);
+
+        private final long minPrice;
+        private final long maxPrice;
+        private final int minScore;
+        private final int openAt;
+
+        /**
+         * @param minPrice 最低均价
+         * @param maxPrice 最高均价
+         * @param minScore 最低评分 (乘 10)
+         * @param openAt 在一天中的这一分钟营业
+         */
+        public Filter(long minPrice, long maxPrice, int minScore, int openAt) {
+            this.minPrice = minPrice;
+            this.maxPrice = maxPrice;
+            this.minScore = minScore;
+            this.openAt = openAt;
+        }
+
+        public int getOpenAt() {
+            return openAt;
+        }
+
+        public boolean isEmpty() {
+            return minPrice < 0 && maxPrice < 0 && minScore < 0 && openAt < 0;
+        }
+
+        /**
+         * 均价或营业时间未知 (-1) 时不满足对应的条件
+         */
+        public boolean matches(long price, int score, int open, int close) {
+            return (minPrice < 0 || price >= minPrice)
+                    && (maxPrice < 0 || price >= 0 && price <= maxPrice)
+                    && (minScore < 0 || score >= minScore)
+                    && (openAt < 0 || OpenHours.isOpen(open, close, openAt));
+        }
+
+        private boolean matches(Cell cell, int i) {
+            return this == NONE || matches(cell.prices[i], cell.scores[i], cell.opens[i], cell.closes[i]);
+        }
+    }
+
+    /**
+     * 写入的点与属性
+     */
+    public static class GeoPoint {
+        private final long id;
+        private final long group;
+        private final double x;
+        private final double y;
+        /**
+         * 均价, 未知为 -1
+         */
+        private final int price;
+        /**
+         * 评分 (乘 10)
+         */
+        private final short score;
+        /**
+         * 营业开始与结束的分钟数, 未知为 -1
+         */
+        private final short open;
+        private final short close;
+
+        public GeoPoint(long id, long group, double x, double y) {
+            this(id, group, x, y, -1, 0, OpenHours.UNKNOWN, OpenHours.UNKNOWN);
+        }
+
+        public GeoPoint(long id, long group, double x, double y, long price, int score, int open, int close) {
+            this.id = id;
+            this.group = group;
+            this.x = x;
+            this.y = y;
+            this.price = (int) Math.min(price, Integer.MAX_VALUE);
+            this.score = (short) Math.max(Math.min(score, Short.MAX_VALUE), 0);
+            this.open = (short) open;
+            this.close = (short) close;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public long getGroup() {
+            return group;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof GeoPoint)) {
+                return false;
+            }
+            GeoPoint p = (GeoPoint) o;
+            return id == p.id && group == p.group && Double.compare(x, p.x) == 0 && Double.compare(y, p.y) == 0
+                    && price == p.price && score == p.score && open == p.open && close == p.close;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(id) * 31 + Long.hashCode(group);
+        }
+    }
+
+    /**
+     * 查询结果: id、距离 (米) 与评分
+     */
+    public static class GeoHit {
+        private final long id;
+        private final double distance;
+        private final int score;
+
+        public GeoHit(long id, double distance) {
+            this(id, distance, 0);
+        }
+
+        public GeoHit(long id, double distance, int score) {
+            this.id = id;
+            this.distance = distance;
+            this.score = score;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+
+        public int getScore() {
+            return score;
+        }
+    }
+
+    /**
+     * 一个网格内的点, 按列存放, 不可变, 修改时复制
+     */
+    private static class Cell {
+        private final long[] ids;
+        private final double[] xs;
+        private final double[] ys;
+        private final int[] prices;
+        private final short[] scores;
+        private final short[] opens;
+        private final short[] closes;
+
+        private Cell(int n) {
+            this(new long[n], new double[n], new double[n], new int[n], new short[n], new short[n], new short[n]);
+        }
+
+        private Cell(long[] ids, double[] xs, double[] ys, int[] prices, short[] scores, short[] opens, short[] closes) {
+            this.ids = ids;
+            this.xs = xs;
+            this.ys = ys;
+            this.prices = prices;
+            this.scores = scores;
+            this.opens = opens;
+            this.closes = closes;
+        }
+
+        /**
+         * 在 cell 末尾追加 points, cell 为 null 时新建
+         */
+        static Cell merge(Cell cell, List<GeoPoint> points) {
+            int n = cell == null ? 0 : cell.ids.length;
+            Cell merged = cell == null ? new Cell(points.size()) : cell.copy(n + points.size());
+            for (GeoPoint point : points) {
+                merged.set(n++, point);
+            }
+            return merged;
+        }
+
+        private Cell copy(int length) {
+            return new Cell(Arrays.copyOf(ids, length), Arrays.copyOf(xs, length), Arrays.copyOf(ys, length),
+                    Arrays.copyOf(prices, length), Arrays.copyOf(scores, length),
+                    Arrays.copyOf(opens, length), Arrays.copyOf(closes, length));
+        }
+
+        private void set(int i, GeoPoint point) {
+            ids[i] = point.id;
+            xs[i] = point.x;
+            ys[i] = point.y;
+            prices[i] = point.price;
+            scores[i] = point.score;
+            opens[i] = point.open;
+            closes[i] = point.close;
+        }
+
+        /**
+         * @return 删除后为空时返回 null, 网格从索引中移除
+         */
+        Cell remove(long id) {
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] != id) {
+                    continue;
+                }
+                int n = ids.length - 1;
+                if (n == 0) {
+                    return null;
+                }
+                // 最后一个点移到被删除的位置, 网格内的点没有顺序
+                Cell cell = copy(n);
+                if (i < n) {
+                    cell.ids[i] = ids[n];
+                    cell.xs[i] = xs[n];
+                    cell.ys[i] = ys[n];
+                    cell.prices[i] = prices[n];
+                    cell.scores[i] = scores[n];
+                    cell.opens[i] = opens[n];
+                    cell.closes[i] = closes[n];
+                }
+                return cell;
+            }
+            return this;
+        }
+    }
+}
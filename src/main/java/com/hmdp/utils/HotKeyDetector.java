@@ -0,0 +1,136 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.HotKeyDTO;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * HotKeyDetector 基于 Count-Min Sketch 的热点 key 检测. 按 sampleRate 采样记录访问, 计数每个窗口衰减一半;
+ * 估计次数达到 threshold 的 key 进入热点集合 (最多 topK 个, 满了淘汰最冷的), 衰减后低于阈值时移出并回调 onDemote
+**/
+public class HotKeyDetector {
+
+    private static final int DEPTH = 4;
+
+    private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+
+    private final int width;
+
+    private final AtomicLongArray counts;
+
+    private final int topK;
+
+    private final long threshold;
+
+    private final double sampleRate;
+
+    private final Consumer<String> onDemote;
+
+    /**
+     * 热点 key -> 最近一次的次数估计 (已按采样率还原)
+     */
+    private final Map<String, Long> hotKeys = new ConcurrentHashMap<>();
+
+    public HotKeyDetector(int width, int topK, long threshold, double sampleRate, Consumer<String> onDemote) {
+        this.width = width;
+        this.counts = new AtomicLongArray(DEPTH * width);
+        this.topK = topK;
+        this.threshold = threshold;
+        this.sampleRate = sampleRate;
+        this.onDemote = onDemote;
+    }
+
+    /**
+     * 记录一次访问
+     */
+    public void record(String key) {
+        if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        int hash = key.hashCode();
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, counts.incrementAndGet(index(i, hash)));
+        }
+        long hits = (long) (min / sampleRate);
+        if (hits < threshold) {
+            return;
+        }
+        if (hotKeys.containsKey(key) || hotKeys.size() < topK) {
+            hotKeys.put(key, hits);
+            return;
+        }
+        // 热点集合已满, 替换最冷的 key
+        Map.Entry<String, Long> coldest = null;
+        for (Map.Entry<String, Long> entry : hotKeys.entrySet()) {
+            if (coldest == null || entry.getValue() < coldest.getValue()) {
+                coldest = entry;
+            }
+        }
+        if (coldest != null && coldest.getValue() < hits && hotKeys.remove(coldest.getKey(), coldest.getValue())) {
+            hotKeys.put(key, hits);
+            onDemote.accept(coldest.getKey());
+        }
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * 窗口结束: 所有计数减半, 重新估计热点 key, 冷却的 key 移出热点集合
+     */
+    public void decay() {
+        for (int i = 0; i < counts.length(); i++) {
+            long c;
+            do {
+                c = counts.get(i);
+            } while (c != 0 && !counts.compareAndSet(i, c, c >>> 1));
+        }
+        for (String key : hotKeys.keySet()) {
+            long hits = estimate(key);
+            if (hits < threshold) {
+                hotKeys.remove(key);
+                onDemote.accept(key);
+            } else {
+                hotKeys.put(key, hits);
+            }
+        }
+    }
+
+    /**
+     * 当前热点 key, 按访问次数降序
+     */
+    public List<HotKeyDTO> hotKeys() {
+        List<HotKeyDTO> list = new ArrayList<>(hotKeys.size());
+        hotKeys.forEach((key, hits) -> list.add(new HotKeyDTO(key, hits)));
+        list.sort(Comparator.comparing(HotKeyDTO::getHits).reversed());
+        return list;
+    }
+
+    /**
+     * 访问次数估计 (已按采样率还原)
+     */
+    public long estimate(String key) {
+        int hash = key.hashCode();
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, counts.get(index(i, hash)));
+        }
+        return (long) (min / sampleRate);
+    }
+
+    private int index(int row, int hash) {
+        // 每一行用不同的种子打散 hashCode
+        long h = (hash ^ SEEDS[row]) * 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return row * width + (int) ((h & Long.MAX_VALUE) % width);
+    }
+}
@@ -0,0 +1,72 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSON;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * JsonCacheCodec JSON 编码, 与原来的缓存格式一致: 逻辑过期的数据是 RedisData, 其他是数据本身. 可读性好, 便于调试
+**/
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public byte[] encode(Object value, long expireAt, long rebuildCost) {
+        if (expireAt == 0) {
+            return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+        }
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(expireAt), ZoneId.systemDefault()));
+        redisData.setRebuildCost(rebuildCost);
+        return JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public long readExpireAt(byte[] bytes) {
+        RedisData redisData = toRedisData(bytes);
+        if (redisData == null) {
+            return 0;
+        }
+        return redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    @Override
+    public long readRebuildCost(byte[] bytes) {
+        RedisData redisData = toRedisData(bytes);
+        if (redisData == null || redisData.getRebuildCost() == null) {
+            return 0;
+        }
+        return redisData.getRebuildCost();
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Type type) {
+        RedisData redisData = toRedisData(bytes);
+        if (redisData != null) {
+            return JSONUtil.toBean((JSON) redisData.getData(), type, false);
+        }
+        return JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), type, false);
+    }
+
+    /**
+     * 逻辑过期的数据只有 expireTime、data 和可选的 rebuildCost 字段
+     */
+    private RedisData toRedisData(byte[] bytes) {
+        Object parsed = JSONUtil.parse(new String(bytes, StandardCharsets.UTF_8));
+        if (!(parsed instanceof JSONObject)) {
+            return null;
+        }
+        JSONObject json = (JSONObject) parsed;
+        int size = json.containsKey("rebuildCost") ? 3 : 2;
+        if (json.size() != size || !json.containsKey("expireTime") || !(json.get("data") instanceof JSON)) {
+            return null;
+        }
+        return json.toBean(RedisData.class);
+    }
+}
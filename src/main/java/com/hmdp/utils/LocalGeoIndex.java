@@ -0,0 +1,55 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * LocalGeoIndex 进程内的 GeoGridIndex, 构建与同步见 LocalIndex.
+ * 未构建完成前 search 返回 null, 由调用方回退到 Redis GEO
+**/
+public class LocalGeoIndex extends LocalIndex<GeoGridIndex, GeoGridIndex.GeoPoint> {
+
+    public LocalGeoIndex(String name, double cellDegrees, long rebuildIntervalMinutes,
+                         BiFunction<Long, Integer, List<GeoGridIndex.GeoPoint>> pointLoader,
+                         Function<Long, GeoGridIndex.GeoPoint> pointGetter,
+                         StringRedisTemplate stringRedisTemplate,
+                         RedisMessageListenerContainer redisMessageListenerContainer) {
+        super(name, rebuildIntervalMinutes, SystemConstants.GEO_LOAD_BATCH_SIZE, pointLoader, pointGetter,
+                () -> new GeoGridIndex(cellDegrees), GeoGridIndex::putAll, GeoGridIndex::remove,
+                GeoGridIndex.GeoPoint::getId, stringRedisTemplate, redisMessageListenerContainer);
+    }
+
+    /**
+     * 查询 group 内 (x, y) 半径 radius 米内最近的 limit 个点
+     * @return 按距离升序; 索引尚未构建时返回 null
+     */
+    public List<GeoGridIndex.GeoHit> search(long group, double x, double y, double radius, int limit) {
+        GeoGridIndex index = current();
+        return index == null ? null : index.search(group, x, y, radius, limit);
+    }
+
+    /**
+     * 查询 group 内 (x, y) 半径 radius 米内排在 (afterDistance, afterId) 之后最近的 limit 个点
+     * @return 按距离、id 升序; 索引尚未构建时返回 null
+     */
+    public List<GeoGridIndex.GeoHit> search(long group, double x, double y, double radius, int limit,
+                                            double afterDistance, long afterId) {
+        GeoGridIndex index = current();
+        return index == null ? null : index.search(group, x, y, radius, limit, afterDistance, afterId);
+    }
+
+    /**
+     * 查询 group 内 (x, y) 半径 radius 米内满足 filter 的 limit 个点
+     * @param byScore true 按评分降序、距离升序; false 按距离升序
+     * @return 索引尚未构建时返回 null
+     */
+    public List<GeoGridIndex.GeoHit> search(long group, double x, double y, double radius, int limit,
+                                            GeoGridIndex.Filter filter, boolean byScore) {
+        GeoGridIndex index = current();
+        return index == null ? null : index.search(group, x, y, radius, limit, filter, byScore);
+    }
+}
@@ -0,0 +1,186 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * LocalIndex 维护一个进程内索引 I, 其中的元素为 E: 启动时异步从数据库全量构建, 之后由写请求增量更新,
+ * 并通过发布订阅通知其他实例从数据库重新加载该 id; 定期全量重建, 弥补丢失的同步消息.
+ * 构建与增量更新在同一个线程中执行, 构建期间的更新排队到构建完成后作用在新索引上.
+ * 未构建完成前 current 返回 null, 由调用方回退到 Redis 或数据库
+ **/
+@Slf4j
+public class LocalIndex<I, E> implements MessageListener {
+
+    private final String name;
+
+    private final long rebuildIntervalMinutes;
+
+    private final int loadBatchSize;
+
+    /**
+     * 按 id 升序分页加载: (lastId, limit) -> elements
+     */
+    private final BiFunction<Long, Integer, List<E>> loader;
+
+    /**
+     * 按 id 加载一个元素, 已删除时返回 null
+     */
+    private final Function<Long, E> getter;
+
+    /**
+     * 创建空索引
+     */
+    private final Supplier<I> factory;
+
+    /**
+     * 写入或替换一批元素
+     */
+    private final BiConsumer<I, List<E>> apply;
+
+    /**
+     * 按 id 删除元素
+     */
+    private final BiConsumer<I, Long> remove;
+
+    private final ToLongFunction<E> idOf;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * 当前提供查询的索引, null 代表尚未构建
+     */
+    private volatile I current;
+
+    public LocalIndex(String name, long rebuildIntervalMinutes, int loadBatchSize,
+                      BiFunction<Long, Integer, List<E>> loader, Function<Long, E> getter,
+                      Supplier<I> factory, BiConsumer<I, List<E>> apply, BiConsumer<I, Long> remove,
+                      ToLongFunction<E> idOf,
+                      StringRedisTemplate stringRedisTemplate,
+                      RedisMessageListenerContainer redisMessageListenerContainer) {
+        this.name = name;
+        this.rebuildIntervalMinutes = rebuildIntervalMinutes;
+        this.loadBatchSize = loadBatchSize;
+        this.loader = loader;
+        this.getter = getter;
+        this.factory = factory;
+        this.apply = apply;
+        this.remove = remove;
+        this.idOf = idOf;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisMessageListenerContainer = redisMessageListenerContainer;
+    }
+
+    /**
+     * 订阅同步消息, 异步构建索引, 并定期全量重建
+     */
+    public void start() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(syncChannel()));
+        executor.execute(this::rebuild);
+        executor.scheduleWithFixedDelay(this::rebuild, rebuildIntervalMinutes, rebuildIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return 当前提供查询的索引, 尚未构建时返回 null
+     */
+    public I current() {
+        return current;
+    }
+
+    /**
+     * id 对应的数据已修改, 在当前事务提交后从数据库重新加载并通知其他实例
+     */
+    public void refresh(Long id) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            executor.execute(() -> reload(id, true));
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                executor.execute(() -> reload(id, true));
+            }
+        });
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        Long id = Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8));
+        // 自己发出的消息也会收到, 重复加载没有影响
+        executor.execute(() -> reload(id, false));
+    }
+
+    private void reload(Long id, boolean publish) {
+        try {
+            // 1. 从数据库加载最新数据, 写入当前索引
+            I index = current;
+            if (index != null) {
+                E element = getter.apply(id);
+                if (element == null) {
+                    remove.accept(index, id);
+                } else {
+                    apply.accept(index, Collections.singletonList(element));
+                }
+            }
+            // 2. 通知其他实例
+            if (publish) {
+                stringRedisTemplate.convertAndSend(syncChannel(), id.toString());
+            }
+        } catch (Exception e) {
+            log.error("更新本地索引 {} 异常, id = {}", name, id, e);
+        }
+    }
+
+    /**
+     * 按 id 分页全量构建新索引后切换
+     */
+    private void rebuild() {
+        try {
+            long begin = System.currentTimeMillis();
+            I index = factory.get();
+            long lastId = 0;
+            long count = 0;
+            List<E> elements;
+            while (!(elements = loader.apply(lastId, loadBatchSize)).isEmpty()) {
+                apply.accept(index, elements);
+                lastId = idOf.applyAsLong(elements.get(elements.size() - 1));
+                count += elements.size();
+            }
+            current = index;
+            log.info("本地索引 {} 构建完成, count = {}, 耗时 {} ms", name, count, System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            // 保留上一次构建的索引
+            log.error("构建本地索引 {} 异常", name, e);
+        }
+    }
+
+    private String syncChannel() {
+        return name + ":sync";
+    }
+}
@@ -0,0 +1,34 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * LocalNameIndex 进程内的 NgramIndex, 构建与同步见 LocalIndex.
+ * 未构建完成前 search 返回 null, 由调用方回退到数据库 LIKE 查询
+**/
+public class LocalNameIndex extends LocalIndex<NgramIndex, NgramIndex.Entry> {
+
+    public LocalNameIndex(String name, long rebuildIntervalMinutes,
+                          BiFunction<Long, Integer, List<NgramIndex.Entry>> entryLoader,
+                          Function<Long, NgramIndex.Entry> entryGetter,
+                          StringRedisTemplate stringRedisTemplate,
+                          RedisMessageListenerContainer redisMessageListenerContainer) {
+        super(name, rebuildIntervalMinutes, SystemConstants.NAME_LOAD_BATCH_SIZE, entryLoader, entryGetter,
+                NgramIndex::new, NgramIndex::putAll, NgramIndex::remove,
+                NgramIndex.Entry::getId, stringRedisTemplate, redisMessageListenerContainer);
+    }
+
+    /**
+     * 查询名称或商圈包含 keyword 的文档, 返回排在 after 之后的 limit 个
+     * @return 索引尚未构建时返回 null
+     */
+    public List<NgramIndex.Hit> search(String keyword, int limit, NgramIndex.Hit after) {
+        NgramIndex index = current();
+        return index == null ? null : index.search(keyword, limit, after);
+    }
+}
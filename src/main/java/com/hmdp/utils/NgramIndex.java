@@ -0,0 +1,474 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.util.StrUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * NgramIndex 进程内的店铺名称倒排索引. 名称切分为单字、相邻两字 (bigram)、前缀与整个名称四类词项, 商圈按整个值索引.
+ * 结果按匹配程度 (名称相同 > 名称前缀 > 名称包含 > 商圈包含)、评分降序、id 升序排序.
+ * 倒排表按 (评分降序, id 升序) 排好序, 每一档匹配程度按顺序遍历, 找满一页即结束, 不需要读出所有匹配的文档;
+ * 游标翻页时二分定位到上一页最后一个结果之后, 代价与页码无关.
+ * 倒排表写入时复制, 查询不加锁
+**/
+public class NgramIndex {
+
+    public static final int EXACT = 4;
+    public static final int PREFIX = 3;
+    public static final int CONTAINS = 2;
+    public static final int AREA = 1;
+
+    /**
+     * 倒排表的排序键: 高位为 (MAX_SCORE - score), 低 ID_BITS 位为 id, 升序即评分降序、id 升序
+     */
+    private static final int ID_BITS = 44;
+    private static final long ID_MASK = (1L << ID_BITS) - 1;
+    private static final int MAX_SCORE = (1 << (63 - ID_BITS)) - 1;
+
+    /**
+     * 词项类型, 位于词项的第 32 位以上
+     */
+    private static final long GRAM = 0;
+    private static final long PREFIX_TERM = 1L << 32;
+    private static final long EXACT_TERM = 2L << 32;
+
+    /**
+     * id -> 文档
+     */
+    private final Map<Long, Doc> docs = new ConcurrentHashMap<>();
+
+    /**
+     * 词项 -> 名称包含该词项的文档排序键, 升序
+     */
+    private final Map<Long, long[]> postings = new ConcurrentHashMap<>();
+
+    /**
+     * 商圈 -> 该商圈的文档排序键, 升序
+     */
+    private final Map<String, long[]> areas = new ConcurrentHashMap<>();
+
+    /**
+     * 新增或修改一个文档
+     * @param id 不超过 2^44
+     */
+    public synchronized void put(long id, String name, String area, int score) {
+        Doc doc = new Doc(id, normalize(name), normalize(area), score);
+        Doc old = docs.get(id);
+        Set<Long> newTerms = terms(doc.name);
+        if (old == null) {
+            // 先写入文档再加入倒排表, 查询读到排序键时文档已可见
+            docs.put(id, doc);
+            newTerms.forEach(term -> postings.compute(term, (t, list) -> insert(list, doc.key)));
+            areas.compute(doc.area, (a, list) -> insert(list, doc.key));
+            return;
+        }
+        Set<Long> oldTerms = terms(old.name);
+        boolean moved = old.key != doc.key;
+        docs.put(id, doc);
+        // 评分变化时排序键变化, 所有词项都要重新插入
+        for (Long term : oldTerms) {
+            if (moved || !newTerms.contains(term)) {
+                postings.computeIfPresent(term, (t, list) -> delete(list, old.key));
+            }
+        }
+        for (Long term : newTerms) {
+            if (moved || !oldTerms.contains(term)) {
+                postings.compute(term, (t, list) -> insert(list, doc.key));
+            }
+        }
+        if (moved || !old.area.equals(doc.area)) {
+            areas.computeIfPresent(old.area, (a, list) -> delete(list, old.key));
+            areas.compute(doc.area, (a, list) -> insert(list, doc.key));
+        }
+    }
+
+    public synchronized void remove(long id) {
+        Doc old = docs.remove(id);
+        if (old == null) {
+            return;
+        }
+        for (Long term : terms(old.name)) {
+            postings.computeIfPresent(term, (t, list) -> delete(list, old.key));
+        }
+        areas.computeIfPresent(old.area, (a, list) -> delete(list, old.key));
+    }
+
+    /**
+     * 批量写入, 每个词项的倒排表只排序合并一次, 用于全量构建
+     */
+    public synchronized void putAll(Collection<Entry> entries) {
+        Map<Long, List<Long>> termKeys = new HashMap<>();
+        Map<String, List<Long>> areaKeys = new HashMap<>();
+        for (Entry entry : entries) {
+            if (docs.containsKey(entry.id)) {
+                put(entry.id, entry.name, entry.area, entry.score);
+                continue;
+            }
+            Doc doc = new Doc(entry.id, normalize(entry.name), normalize(entry.area), entry.score);
+            docs.put(doc.id, doc);
+            for (Long term : terms(doc.name)) {
+                termKeys.computeIfAbsent(term, t -> new ArrayList<>()).add(doc.key);
+            }
+            areaKeys.computeIfAbsent(doc.area, a -> new ArrayList<>()).add(doc.key);
+        }
+        termKeys.forEach((term, keys) -> postings.compute(term, (t, list) -> merge(list, keys)));
+        areaKeys.forEach((area, keys) -> areas.compute(area, (a, list) -> merge(list, keys)));
+    }
+
+    public int size() {
+        return docs.size();
+    }
+
+    /**
+     * 查询名称或商圈包含 keyword 的文档, 返回排在 after 之后的 limit 个
+     * @param after 上一页最后一个结果, 第一页为 null
+     * @return 按匹配程度、评分降序, id 升序
+     */
+    public List<Hit> search(String keyword, int limit, Hit after) {
+        String q = normalize(keyword);
+        List<Hit> hits = new ArrayList<>(Math.max(limit, 0));
+        if (q.isEmpty() || limit <= 0) {
+            return hits;
+        }
+        // 从游标所在的匹配程度开始, 逐档向下查询, 找满 limit 个即结束
+        int start = after == null ? EXACT : after.quality;
+        for (int quality = start; quality >= AREA && hits.size() < limit; quality--) {
+            long from = after != null && quality == after.quality ? key(after.score, after.id) : -1;
+            switch (quality) {
+                case EXACT:
+                    walk(lists(exactTerm(q)), from, EXACT, limit, hits, doc -> doc.name.equals(q));
+                    break;
+                case PREFIX:
+                    walk(lists(prefixTerm(q)), from, PREFIX, limit, hits,
+                            doc -> doc.name.startsWith(q) && !doc.name.equals(q));
+                    break;
+                case CONTAINS:
+                    walk(lists(gramTerms(q)), from, CONTAINS, limit, hits,
+                            doc -> doc.name.contains(q) && !doc.name.startsWith(q));
+                    break;
+                default:
+                    walkAreas(q, from, limit, hits);
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * 所有词项的倒排表, 按长度升序; 任一词项不存在时返回空
+     */
+    private List<long[]> lists(Collection<Long> terms) {
+        List<long[]> lists = new ArrayList<>(terms.size());
+        for (Long term : terms) {
+            long[] list = postings.get(term);
+            if (list == null) {
+                return Collections.emptyList();
+            }
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(list -> list.length));
+        return lists;
+    }
+
+    private List<long[]> lists(long term) {
+        return lists(Collections.singleton(term));
+    }
+
+    /**
+     * 按排序键顺序遍历所有倒排表的交集, 从 from 之后开始, 确认匹配后加入结果
+     */
+    private void walk(List<long[]> lists, long from, int quality, int limit, List<Hit> hits, Predicate<Doc> matches) {
+        if (lists.isEmpty()) {
+            return;
+        }
+        long[] shortest = lists.get(0);
+        int[] positions = new int[lists.size()];
+        for (int i = upperBound(shortest, from); i < shortest.length && hits.size() < limit; i++) {
+            long key = shortest[i];
+            if (!containsAll(lists, positions, key)) {
+                continue;
+            }
+            Doc doc = docs.get(key & ID_MASK);
+            // 文档已修改时排序键不一致, 以修改后的倒排表为准
+            if (doc != null && doc.key == key && matches.test(doc)) {
+                hits.add(new Hit(doc.id, quality, doc.score));
+            }
+        }
+    }
+
+    /**
+     * 其余倒排表是否都包含 key, 倒排表有序, 每个表从上次的位置继续二分
+     */
+    private static boolean containsAll(List<long[]> lists, int[] positions, long key) {
+        for (int j = 1; j < lists.size(); j++) {
+            long[] list = lists.get(j);
+            int i = Arrays.binarySearch(list, positions[j], list.length, key);
+            if (i < 0) {
+                positions[j] = -i - 1;
+                return false;
+            }
+            positions[j] = i + 1;
+        }
+        return true;
+    }
+
+    /**
+     * 商圈包含关键字且名称不包含的文档: 多个商圈的倒排表按排序键归并
+     */
+    private void walkAreas(String q, long from, int limit, List<Hit> hits) {
+        List<long[]> lists = new ArrayList<>();
+        areas.forEach((area, list) -> {
+            if (area.contains(q)) {
+                lists.add(list);
+            }
+        });
+        int[] positions = new int[lists.size()];
+        for (int j = 0; j < lists.size(); j++) {
+            positions[j] = upperBound(lists.get(j), from);
+        }
+        while (hits.size() < limit) {
+            // 取各表当前位置最小的排序键
+            int min = -1;
+            for (int j = 0; j < lists.size(); j++) {
+                if (positions[j] < lists.get(j).length
+                        && (min < 0 || lists.get(j)[positions[j]] < lists.get(min)[positions[min]])) {
+                    min = j;
+                }
+            }
+            if (min < 0) {
+                return;
+            }
+            long key = lists.get(min)[positions[min]++];
+            Doc doc = docs.get(key & ID_MASK);
+            if (doc != null && doc.key == key && doc.area.contains(q) && !doc.name.contains(q)) {
+                hits.add(new Hit(doc.id, AREA, doc.score));
+            }
+        }
+    }
+
+    /**
+     * 第一个大于 key 的位置
+     */
+    private static int upperBound(long[] list, long key) {
+        int i = Arrays.binarySearch(list, key);
+        return i >= 0 ? i + 1 : -i - 1;
+    }
+
+    private static long[] insert(long[] list, long key) {
+        if (list == null) {
+            return new long[]{key};
+        }
+        int i = Arrays.binarySearch(list, key);
+        if (i >= 0) {
+            return list;
+        }
+        int pos = -i - 1;
+        long[] copy = new long[list.length + 1];
+        System.arraycopy(list, 0, copy, 0, pos);
+        copy[pos] = key;
+        System.arraycopy(list, pos, copy, pos + 1, list.length - pos);
+        return copy;
+    }
+
+    /**
+     * @return 删除后为空时返回 null, 词项从索引中移除
+     */
+    private static long[] delete(long[] list, long key) {
+        int i = Arrays.binarySearch(list, key);
+        if (i < 0) {
+            return list;
+        }
+        if (list.length == 1) {
+            return null;
+        }
+        long[] copy = new long[list.length - 1];
+        System.arraycopy(list, 0, copy, 0, i);
+        System.arraycopy(list, i + 1, copy, i, list.length - i - 1);
+        return copy;
+    }
+
+    private static long[] merge(long[] list, List<Long> keys) {
+        int n = list == null ? 0 : list.length;
+        long[] merged = list == null ? new long[keys.size()] : Arrays.copyOf(list, n + keys.size());
+        for (Long key : keys) {
+            merged[n++] = key;
+        }
+        Arrays.sort(merged);
+        return merged;
+    }
+
+    /**
+     * 名称的词项: 单字、bigram、一字与两字前缀、整个名称
+     */
+    private static Set<Long> terms(String name) {
+        Set<Long> terms = new HashSet<>();
+        if (name.isEmpty()) {
+            return terms;
+        }
+        terms.addAll(gramTerms(name));
+        for (int i = 0; i < name.length(); i++) {
+            terms.add(GRAM | name.charAt(i));
+        }
+        terms.add(PREFIX_TERM | (long) name.charAt(0) << 16);
+        if (name.length() > 1) {
+            terms.add(PREFIX_TERM | (long) name.charAt(0) << 16 | name.charAt(1));
+        }
+        terms.add(exactTerm(name));
+        return terms;
+    }
+
+    /**
+     * 关键字的名称词项: 单字关键字取单字, 否则取所有 bigram
+     */
+    private static Set<Long> gramTerms(String q) {
+        Set<Long> terms = new HashSet<>();
+        if (q.length() == 1) {
+            terms.add(GRAM | q.charAt(0));
+            return terms;
+        }
+        for (int i = 0; i + 1 < q.length(); i++) {
+            // 高 16 位不为 0, 与单字不冲突 (名称中不会出现 \0)
+            terms.add(GRAM | (long) q.charAt(i) << 16 | q.charAt(i + 1));
+        }
+        return terms;
+    }
+
+    private static long prefixTerm(String q) {
+        return PREFIX_TERM | (long) q.charAt(0) << 16 | (q.length() > 1 ? q.charAt(1) : 0);
+    }
+
+    /**
+     * 整个名称的哈希, 冲突时由 equals 确认
+     */
+    private static long exactTerm(String q) {
+        return EXACT_TERM | (q.hashCode() & 0xFFFFFFFFL);
+    }
+
+    private static long key(int score, long id) {
+        return (long) (MAX_SCORE - Math.max(0, Math.min(score, MAX_SCORE))) << ID_BITS | id;
+    }
+
+    /**
+     * 小写并去掉空白, 查询与写入使用相同的规则
+     */
+    private static String normalize(String s) {
+        return s == null ? "" : StrUtil.cleanBlank(s).toLowerCase();
+    }
+
+    /**
+     * 批量写入的文档
+     */
+    public static class Entry {
+        private final long id;
+        private final String name;
+        private final String area;
+        private final int score;
+
+        public Entry(long id, String name, String area, int score) {
+            this.id = id;
+            this.name = name;
+            this.area = area;
+            this.score = score;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getArea() {
+            return area;
+        }
+
+        public int getScore() {
+            return score;
+        }
+    }
+
+    /**
+     * 查询结果, 也作为翻页游标
+     */
+    public static class Hit {
+        private final long id;
+        private final int quality;
+        private final int score;
+
+        public Hit(long id, int quality, int score) {
+            this.id = id;
+            this.quality = quality;
+            this.score = score;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public int getQuality() {
+            return quality;
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        /**
+         * 对客户端不透明的游标
+         */
+        public String encode() {
+            return Base64.encodeUrlSafe(quality + ":" + score + ":" + id);
+        }
+
+        /**
+         * @return 游标为空或格式错误时返回 null
+         */
+        public static Hit decode(String cursor) {
+            if (StrUtil.isBlank(cursor)) {
+                return null;
+            }
+            try {
+                String[] parts = Base64.decodeStr(cursor, StandardCharsets.UTF_8).split(":");
+                int quality = Integer.parseInt(parts[0]);
+                if (quality < AREA || quality > EXACT) {
+                    return null;
+                }
+                return new Hit(Long.parseLong(parts[2]), quality, Integer.parseInt(parts[1]));
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+    }
+
+    private static class Doc {
+        private final long id;
+        private final String name;
+        private final String area;
+        private final int score;
+        private final long key;
+
+        private Doc(long id, String name, String area, int score) {
+            if (id < 0 || id > ID_MASK) {
+                throw new IllegalArgumentException("id 超出范围: " + id);
+            }
+            this.id = id;
+            this.name = name;
+            this.area = area;
+            this.score = score;
+            this.key = key(score, id);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+
+import java.time.LocalTime;
+
+/**
+ * OpenHours 营业时间, 按一天中的分钟数表示. 格式为 10:00-22:00, 结束早于开始代表营业到次日 (如 18:00-02:00)
+**/
+public class OpenHours {
+
+    /**
+     * 未知的营业时间
+     */
+    public static final int UNKNOWN = -1;
+
+    private OpenHours() {
+    }
+
+    /**
+     * @return {开始分钟, 结束分钟}, 无法解析时都为 UNKNOWN
+     */
+    public static int[] parse(String openHours) {
+        int[] unknown = {UNKNOWN, UNKNOWN};
+        if (StrUtil.isBlank(openHours)) {
+            return unknown;
+        }
+        String[] range = StrUtil.cleanBlank(openHours).split("[-~]");
+        if (range.length != 2) {
+            return unknown;
+        }
+        int open = minuteOf(range[0]);
+        int close = minuteOf(range[1]);
+        return open == UNKNOWN || close == UNKNOWN ? unknown : new int[]{open, close};
+    }
+
+    /**
+     * minute 时是否在营业, 营业时间未知时返回 false
+     */
+    public static boolean isOpen(int open, int close, int minute) {
+        if (open == UNKNOWN || close == UNKNOWN) {
+            return false;
+        }
+        if (open == close) {
+            // 全天营业
+            return true;
+        }
+        return open < close ? minute >= open && minute < close : minute >= open || minute < close;
+    }
+
+    /**
+     * 当前时间在一天中的分钟数
+     */
+    public static int now() {
+        LocalTime now = LocalTime.now();
+        return now.getHour() * 60 + now.getMinute();
+    }
+
+    private static int minuteOf(String time) {
+        String[] parts = time.split(":");
+        if (parts.length != 2 || !StrUtil.isNumeric(parts[0]) || !StrUtil.isNumeric(parts[1])) {
+            return UNKNOWN;
+        }
+        int hour = Integer.parseInt(parts[0]);
+        int minute = Integer.parseInt(parts[1]);
+        if (hour > 24 || minute > 59) {
+            return UNKNOWN;
+        }
+        // 24:00 即次日 0 点
+        return hour * 60 % (24 * 60) + minute;
+    }
+}
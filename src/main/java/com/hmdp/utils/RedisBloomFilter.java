@@ -0,0 +1,365 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.map.MapUtil;
+import com.google.common.hash.Hashing;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiFunction;
+
+/**
+ * RedisBloomFilter 以 Redis 位图为准、本地镜像判断的布隆过滤器, 用于在查询缓存前拦截不存在的 id.
+ * 位图按代 (generation) 存放在 name:{gen}, 元数据在 name:meta; 启动时从 Redis 加载, 不存在则按 id 从数据库构建.
+ * 新增 id 同时写入 Redis 与本地, 并通过发布订阅同步到其他实例; 插入数量超过预期时按两倍容量构建下一代并切换.
+ * 未加载完成前 mightContain 总是返回 true, 不影响正常查询
+**/
+@Slf4j
+public class RedisBloomFilter implements MessageListener {
+
+    /**
+     * 本地镜像与 Redis 的全量同步间隔, 弥补丢失的同步消息
+     */
+    private static final long RESYNC_INTERVAL_MINUTES = 5L;
+
+    private static final String ADD_MESSAGE = "add:";
+
+    private static final String RELOAD_MESSAGE = "reload";
+
+    private final String name;
+
+    private final long expectedInsertions;
+
+    private final double fpp;
+
+    /**
+     * 按 id 升序分页加载: (lastId, limit) -> ids
+     */
+    private final BiFunction<Long, Integer, List<Long>> idLoader;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedissonClient redissonClient;
+
+    private final RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    private final AtomicBoolean rotating = new AtomicBoolean();
+
+    /**
+     * 当前代的本地镜像, null 代表尚未加载
+     */
+    private volatile Generation current;
+
+    public RedisBloomFilter(String name, long expectedInsertions, double fpp,
+                            BiFunction<Long, Integer, List<Long>> idLoader,
+                            StringRedisTemplate stringRedisTemplate,
+                            RedissonClient redissonClient,
+                            RedisMessageListenerContainer redisMessageListenerContainer) {
+        this.name = name;
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        this.idLoader = idLoader;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redissonClient = redissonClient;
+        this.redisMessageListenerContainer = redisMessageListenerContainer;
+    }
+
+    /**
+     * 订阅同步消息, 异步加载或构建位图, 并定期与 Redis 全量同步
+     */
+    public void start() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(syncChannel()));
+        executor.execute(this::loadOrBuild);
+        executor.scheduleWithFixedDelay(this::resync, RESYNC_INTERVAL_MINUTES, RESYNC_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return false 代表 id 一定不存在; true 代表可能存在, 或者过滤器尚未加载
+     */
+    public boolean mightContain(Long id) {
+        Generation generation = current;
+        if (generation == null) {
+            return true;
+        }
+        for (long index : generation.indexes(id)) {
+            if (!generation.get(index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 新增 id, 写入 Redis 位图与本地镜像并通知其他实例
+     */
+    public void put(Long id) {
+        Generation generation = current;
+        if (generation == null) {
+            // 尚未加载完成, 构建时会从数据库读到这个 id
+            return;
+        }
+        long[] indexes = generation.indexes(id);
+        for (long index : indexes) {
+            generation.set(index);
+        }
+        String bitmapKey = bitmapKey(generation.gen);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] key = bitmapKey.getBytes(StandardCharsets.UTF_8);
+            for (long index : indexes) {
+                connection.setBit(key, index, true);
+            }
+            return null;
+        });
+        stringRedisTemplate.convertAndSend(syncChannel(), ADD_MESSAGE + generation.gen + ":" + id);
+        Long count = stringRedisTemplate.opsForValue().increment(countKey(generation.gen));
+        // 插入数量超过预期, 误判率开始上升, 构建下一代
+        if (count != null && count > generation.expected && rotating.compareAndSet(false, true)) {
+            executor.execute(this::rotate);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (RELOAD_MESSAGE.equals(body)) {
+            executor.execute(this::resync);
+            return;
+        }
+        // add:gen:id, 只同步当前代
+        String[] parts = body.split(":");
+        Generation generation = current;
+        if (generation != null && generation.gen == Long.parseLong(parts[1])) {
+            for (long index : generation.indexes(Long.valueOf(parts[2]))) {
+                generation.set(index);
+            }
+        }
+    }
+
+    private void loadOrBuild() {
+        try {
+            if (load()) {
+                return;
+            }
+            RLock lock = redissonClient.getLock("lock:" + name);
+            lock.lock();
+            try {
+                // 获取锁后再次检查, 其他实例可能已经构建完成
+                if (!load()) {
+                    build(1, expectedInsertions);
+                }
+            } finally {
+                lock.unlock();
+            }
+        } catch (Exception e) {
+            log.error("加载布隆过滤器 {} 异常", name, e);
+        }
+    }
+
+    private void resync() {
+        try {
+            load();
+        } catch (Exception e) {
+            log.error("同步布隆过滤器 {} 异常", name, e);
+        }
+    }
+
+    /**
+     * 从 Redis 加载当前代的位图到本地
+     * @return Redis 中没有位图时返回 false
+     */
+    private boolean load() {
+        Map<Object, Object> meta = stringRedisTemplate.opsForHash().entries(metaKey());
+        if (MapUtil.isEmpty(meta)) {
+            return false;
+        }
+        long gen = Long.parseLong((String) meta.get("gen"));
+        Generation generation = new Generation(gen,
+                Long.parseLong((String) meta.get("bits")),
+                Integer.parseInt((String) meta.get("hashes")),
+                Long.parseLong((String) meta.get("expected")));
+        byte[] bitmap = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.get(bitmapKey(gen).getBytes(StandardCharsets.UTF_8)));
+        if (bitmap != null) {
+            generation.load(bitmap);
+        }
+        current = generation;
+        log.debug("布隆过滤器 {} 已加载, gen = {}, bits = {}", name, gen, generation.numBits);
+        return true;
+    }
+
+    /**
+     * 按 expected 构建第 gen 代位图: 本地按 id 分页计算后一次写入 Redis, 切换元数据后补齐构建期间新增的 id
+     */
+    private void build(long gen, long expected) {
+        long numBits = Math.max(64, (long) (-expected * Math.log(fpp) / (Math.log(2) * Math.log(2))));
+        int numHashes = Math.max(1, (int) Math.round((double) numBits / expected * Math.log(2)));
+        Generation generation = new Generation(gen, numBits, numHashes, expected);
+        long begin = System.currentTimeMillis();
+        long lastId = 0;
+        long count = 0;
+        List<Long> ids;
+        while (!(ids = idLoader.apply(lastId, SystemConstants.BLOOM_LOAD_BATCH_SIZE)).isEmpty()) {
+            for (Long id : ids) {
+                for (long index : generation.indexes(id)) {
+                    generation.set(index);
+                }
+            }
+            count += ids.size();
+            lastId = ids.get(ids.size() - 1);
+        }
+        byte[] bitmapKey = bitmapKey(gen).getBytes(StandardCharsets.UTF_8);
+        byte[] bitmap = generation.toBytes();
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.set(bitmapKey, bitmap));
+        stringRedisTemplate.opsForValue().set(countKey(gen), String.valueOf(count));
+        Map<String, String> meta = new HashMap<>(8);
+        meta.put("gen", String.valueOf(gen));
+        meta.put("bits", String.valueOf(numBits));
+        meta.put("hashes", String.valueOf(numHashes));
+        meta.put("expected", String.valueOf(expected));
+        stringRedisTemplate.opsForHash().putAll(metaKey(), meta);
+        current = generation;
+        stringRedisTemplate.convertAndSend(syncChannel(), RELOAD_MESSAGE);
+        // 切换之前新增的 id 只写入了上一代, 按 id 递增补齐
+        while (!(ids = idLoader.apply(lastId, SystemConstants.BLOOM_LOAD_BATCH_SIZE)).isEmpty()) {
+            for (Long id : ids) {
+                put(id);
+            }
+            lastId = ids.get(ids.size() - 1);
+        }
+        log.info("布隆过滤器 {} 构建完成, gen = {}, ids = {}, bits = {}, hashes = {}, 耗时 {} ms",
+                name, gen, count, numBits, numHashes, System.currentTimeMillis() - begin);
+    }
+
+    /**
+     * 按两倍容量构建下一代并删除上一代
+     */
+    private void rotate() {
+        RLock lock = redissonClient.getLock("lock:" + name);
+        lock.lock();
+        try {
+            load();
+            Generation generation = current;
+            String count = stringRedisTemplate.opsForValue().get(countKey(generation.gen));
+            if (count == null || Long.parseLong(count) <= generation.expected) {
+                // 其他实例已经完成切换
+                return;
+            }
+            build(generation.gen + 1, generation.expected * 2);
+            stringRedisTemplate.delete(bitmapKey(generation.gen));
+            stringRedisTemplate.delete(countKey(generation.gen));
+        } catch (Exception e) {
+            log.error("布隆过滤器 {} 扩容异常", name, e);
+        } finally {
+            lock.unlock();
+            rotating.set(false);
+        }
+    }
+
+    private String metaKey() {
+        return name + ":meta";
+    }
+
+    private String bitmapKey(long gen) {
+        return name + ":" + gen;
+    }
+
+    private String countKey(long gen) {
+        return name + ":count:" + gen;
+    }
+
+    private String syncChannel() {
+        return name + ":sync";
+    }
+
+    /**
+     * 一代位图的本地镜像, 第 i 位与 Redis SETBIT 的 offset i 一致
+     */
+    private static class Generation {
+        private final long gen;
+        private final long numBits;
+        private final int numHashes;
+        private final long expected;
+        private final AtomicLongArray words;
+
+        private Generation(long gen, long numBits, int numHashes, long expected) {
+            this.gen = gen;
+            this.numBits = numBits;
+            this.numHashes = numHashes;
+            this.expected = expected;
+            this.words = new AtomicLongArray((int) ((numBits + 63) >>> 6));
+        }
+
+        /**
+         * 与 Guava BloomFilter 相同的双重哈希: murmur3_128 的两个 64 位结果 h1 + i * h2
+         */
+        private long[] indexes(Long id) {
+            ByteBuffer hash = ByteBuffer.wrap(Hashing.murmur3_128().hashLong(id).asBytes());
+            long h1 = hash.getLong();
+            long h2 = hash.getLong();
+            long[] indexes = new long[numHashes];
+            long combined = h1;
+            for (int i = 0; i < numHashes; i++) {
+                indexes[i] = (combined & Long.MAX_VALUE) % numBits;
+                combined += h2;
+            }
+            return indexes;
+        }
+
+        private boolean get(long index) {
+            return (words.get((int) (index >>> 6)) & (1L << index)) != 0;
+        }
+
+        private void set(long index) {
+            int i = (int) (index >>> 6);
+            long mask = 1L << index;
+            long word;
+            while (((word = words.get(i)) & mask) == 0 && !words.compareAndSet(i, word, word | mask)) {
+                // CAS 失败重试
+            }
+        }
+
+        /**
+         * Redis 位图中 offset i 是第 i / 8 个字节的从高到低第 i % 8 位
+         */
+        private void load(byte[] bitmap) {
+            long limit = Math.min(numBits, (long) bitmap.length * 8);
+            for (long index = 0; index < limit; index++) {
+                if ((bitmap[(int) (index >>> 3)] & (0x80 >>> (index & 7))) != 0) {
+                    set(index);
+                }
+            }
+        }
+
+        private byte[] toBytes() {
+            byte[] bitmap = new byte[(int) ((numBits + 7) >>> 3)];
+            for (long index = 0; index < numBits; index++) {
+                if (get(index)) {
+                    bitmap[(int) (index >>> 3)] |= 0x80 >>> (index & 7);
+                }
+            }
+            return bitmap;
+        }
+    }
+}
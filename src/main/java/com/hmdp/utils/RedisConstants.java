@@ -10,17 +10,44 @@ public class RedisConstants {
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final Long CACHE_SHOP_LOCAL_SIZE = 10000L;
+    public static final Long CACHE_SHOP_LOCAL_TTL = 60L;
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final String CACHE_VOUCHER_SHOP_KEY = "cache:voucher:shop:";
+    public static final String CACHE_SHOP_TYPE_KEY = "cache:shopType:";
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String BLOOM_SHOP_KEY = "bloom:shop";
+    public static final String CACHE_WARM_UP_KEY = "cache:warmup:";
+    public static final String CACHE_SHOP_GEO_CELL_KEY = "cache:geo:shop:";
+    public static final Long CACHE_SHOP_GEO_CELL_TTL = 60L;
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_META_KEY = "seckill:meta:";
+    public static final Long SECKILL_META_LOCAL_SIZE = 10000L;
+    public static final Long SECKILL_META_LOCAL_TTL = 30L;
+    public static final Long SECKILL_META_NULL_TTL = 10L;
+    public static final String SECKILL_ORDER_STREAM_KEY = "stream.orders:";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final String SECKILL_ORDER_DEAD_STREAM_KEY = "stream.orders.dead:";
+    public static final String SECKILL_ORDER_CONSUMER_KEY = "seckill:consumers";
+    public static final String LOCK_ORDER_PARTITION_KEY = "lock:stream.orders:";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final String SECKILL_STOCK_RESET_CHANNEL = "seckill:reset";
+
+    public static final String ID_WORKER_KEY = "id:worker:";
 
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     
     public static final String FEED_KEY = "feed:";
     
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_GEO_LOCAL_INDEX = "shop:geo:local";
+    public static final String SHOP_NAME_LOCAL_INDEX = "shop:name:local";
     
     public static final String USER_SIGN_KEY = "sign:";
 
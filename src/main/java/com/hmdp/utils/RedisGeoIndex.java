@@ -0,0 +1,234 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.collection.CollUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * RedisGeoIndex 维护按分组 (店铺类型) 划分的 Redis GEO 集合 keyPrefix + group.
+ * 写请求在事务提交后从数据库重新加载该 id 并写入所在分组, 分组变化时从原分组删除;
+ * 定期按 id 分块对比数据库与 GEO 集合: 补齐缺失或坐标不一致的成员, 删除已不存在或分组已变化的成员,
+ * 修复丢失的同步, 不需要全量重建. 对比由一个实例执行
+**/
+@Slf4j
+public class RedisGeoIndex {
+
+    /**
+     * GEO 坐标按 52 位 geohash 存储, 读出的坐标与写入的误差在 1e-5 度以内
+     */
+    private static final double COORDINATE_TOLERANCE = 1e-5;
+
+    private final String keyPrefix;
+
+    private final long reconcileIntervalMinutes;
+
+    /**
+     * 按 id 升序分页加载: (lastId, limit) -> points
+     */
+    private final BiFunction<Long, Integer, List<GeoGridIndex.GeoPoint>> pointLoader;
+
+    /**
+     * 按 id 批量加载, 已删除或没有坐标的 id 不在结果中
+     */
+    private final Function<List<Long>, List<GeoGridIndex.GeoPoint>> pointGetter;
+
+    /**
+     * 所有分组
+     */
+    private final Supplier<List<Long>> groupLoader;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedissonClient redissonClient;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    public RedisGeoIndex(String keyPrefix, long reconcileIntervalMinutes,
+                         BiFunction<Long, Integer, List<GeoGridIndex.GeoPoint>> pointLoader,
+                         Function<List<Long>, List<GeoGridIndex.GeoPoint>> pointGetter,
+                         Supplier<List<Long>> groupLoader,
+                         StringRedisTemplate stringRedisTemplate,
+                         RedissonClient redissonClient) {
+        this.keyPrefix = keyPrefix;
+        this.reconcileIntervalMinutes = reconcileIntervalMinutes;
+        this.pointLoader = pointLoader;
+        this.pointGetter = pointGetter;
+        this.groupLoader = groupLoader;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redissonClient = redissonClient;
+    }
+
+    /**
+     * 定期对比数据库与 GEO 集合
+     */
+    public void start() {
+        executor.scheduleWithFixedDelay(this::reconcile, reconcileIntervalMinutes, reconcileIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * id 对应的数据已修改, 在当前事务提交后从数据库重新加载并写入 GEO 集合
+     * @param oldGroup 修改前的分组, 新增时为 null
+     */
+    public void refresh(Long id, Long oldGroup) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            sync(id, oldGroup);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                sync(id, oldGroup);
+            }
+        });
+    }
+
+    private void sync(Long id, Long oldGroup) {
+        try {
+            List<GeoGridIndex.GeoPoint> points = pointGetter.apply(Collections.singletonList(id));
+            GeoGridIndex.GeoPoint point = points.isEmpty() ? null : points.get(0);
+            // 1. 分组变化或已删除, 从原分组删除
+            if (oldGroup != null && (point == null || point.getGroup() != oldGroup)) {
+                stringRedisTemplate.opsForZSet().remove(keyPrefix + oldGroup, id.toString());
+            }
+            // 2. 写入当前分组, GEOADD 同时更新坐标
+            if (point != null) {
+                stringRedisTemplate.opsForGeo().add(keyPrefix + point.getGroup(),
+                        new Point(point.getX(), point.getY()), id.toString());
+            }
+        } catch (Exception e) {
+            // 由定期对比修复
+            log.error("同步 GEO 集合 {} 异常, id = {}", keyPrefix, id, e);
+        }
+    }
+
+    /**
+     * 对比数据库与 GEO 集合, 其他实例正在对比时跳过
+     */
+    public void reconcile() {
+        RLock lock = redissonClient.getLock("lock:" + keyPrefix + "reconcile");
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            long added = addMissing();
+            long removed = 0;
+            for (Long group : groupLoader.get()) {
+                removed += removeStale(group);
+            }
+            log.info("GEO 集合 {} 对比完成, 补齐 {}, 删除 {}, 耗时 {} ms",
+                    keyPrefix, added, removed, System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.error("对比 GEO 集合 {} 异常", keyPrefix, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按 id 分块读取数据库, 补齐 GEO 集合中缺失或坐标不一致的成员
+     */
+    private long addMissing() {
+        long added = 0;
+        long lastId = 0;
+        List<GeoGridIndex.GeoPoint> points;
+        while (!(points = pointLoader.apply(lastId, SystemConstants.GEO_LOAD_BATCH_SIZE)).isEmpty()) {
+            lastId = points.get(points.size() - 1).getId();
+            // 1. 按分组批量读取 GEO 坐标, 找出不一致的 id
+            List<Long> mismatched = new ArrayList<>();
+            Map<Long, List<GeoGridIndex.GeoPoint>> groups = points.stream()
+                    .collect(Collectors.groupingBy(GeoGridIndex.GeoPoint::getGroup));
+            groups.forEach((group, list) -> {
+                String[] members = list.stream().map(p -> String.valueOf(p.getId())).toArray(String[]::new);
+                List<Point> positions = stringRedisTemplate.opsForGeo().position(keyPrefix + group, members);
+                for (int i = 0; i < list.size(); i++) {
+                    Point position = positions == null ? null : positions.get(i);
+                    if (!matches(position, list.get(i))) {
+                        mismatched.add(list.get(i).getId());
+                    }
+                }
+            });
+            if (mismatched.isEmpty()) {
+                continue;
+            }
+            // 2. 重新读取不一致的 id, 避免用读取之后已修改的旧坐标覆盖写请求同步的结果
+            Map<Long, List<RedisGeoCommands.GeoLocation<String>>> locations = pointGetter.apply(mismatched).stream()
+                    .collect(Collectors.groupingBy(GeoGridIndex.GeoPoint::getGroup, Collectors.mapping(
+                            p -> new RedisGeoCommands.GeoLocation<>(String.valueOf(p.getId()), new Point(p.getX(), p.getY())),
+                            Collectors.toList())));
+            for (Map.Entry<Long, List<RedisGeoCommands.GeoLocation<String>>> entry : locations.entrySet()) {
+                stringRedisTemplate.opsForGeo().add(keyPrefix + entry.getKey(), entry.getValue());
+                added += entry.getValue().size();
+            }
+        }
+        return added;
+    }
+
+    /**
+     * 分块扫描一个分组的 GEO 集合, 删除数据库中已不存在或分组已变化的成员
+     */
+    private long removeStale(Long group) {
+        String key = keyPrefix + group;
+        long removed = 0;
+        ScanOptions options = ScanOptions.scanOptions().count(SystemConstants.GEO_LOAD_BATCH_SIZE).build();
+        try (Cursor<ZSetOperations.TypedTuple<String>> cursor = stringRedisTemplate.opsForZSet().scan(key, options)) {
+            List<Long> ids = new ArrayList<>(SystemConstants.GEO_LOAD_BATCH_SIZE);
+            while (cursor.hasNext()) {
+                ids.add(Long.valueOf(Objects.requireNonNull(cursor.next().getValue())));
+                if (ids.size() == SystemConstants.GEO_LOAD_BATCH_SIZE || !cursor.hasNext()) {
+                    removed += removeStale(key, group, ids);
+                    ids.clear();
+                }
+            }
+        } catch (Exception e) {
+            log.error("扫描 GEO 集合 {} 异常", key, e);
+        }
+        return removed;
+    }
+
+    private long removeStale(String key, Long group, List<Long> ids) {
+        Map<Long, Long> current = pointGetter.apply(ids).stream()
+                .collect(Collectors.toMap(GeoGridIndex.GeoPoint::getId, GeoGridIndex.GeoPoint::getGroup));
+        Object[] stale = ids.stream()
+                .filter(id -> !group.equals(current.get(id)))
+                .map(String::valueOf)
+                .toArray();
+        if (stale.length == 0) {
+            return 0;
+        }
+        stringRedisTemplate.opsForZSet().remove(key, stale);
+        return stale.length;
+    }
+
+    private static boolean matches(Point position, GeoGridIndex.GeoPoint point) {
+        return position != null
+                && Math.abs(position.getX() - point.getX()) < COORDINATE_TOLERANCE
+                && Math.abs(position.getY() - point.getY()) < COORDINATE_TOLERANCE;
+    }
+}
@@ -1,12 +1,32 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static com.hmdp.utils.RedisConstants.ID_WORKER_KEY;
+
+@Slf4j
 @Component
 public class RedisIdWorker {
     /**
@@ -17,26 +37,296 @@ public class RedisIdWorker {
      * 序列号的位数
      */
     private static final int COUNT_BITS = 32;
+    /**
+     * 一天的秒数
+     */
+    private static final long SECONDS_PER_DAY = 86400L;
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    /**
+     * 当前实例在 worker id 租约中的标识
+     */
+    private static final String INSTANCE_ID = UUID.randomUUID().toString(true);
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("id_worker_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 序列号分配方式: incr 每个 id 一次 INCR; segment 每次用 INCRBY 租用一段序列号, 在本地分配;
+     * snowflake 从 Redis 租用 worker id, id 完全在本地生成. 同一个集群的所有实例必须使用同一种方式
+     */
+    @Value("${hmdp.id.mode:incr}")
+    private String mode;
+
+    /**
+     * segment 模式每次租用的序列号数量
+     */
+    @Value("${hmdp.id.segment.step:1000}")
+    private long step;
+
+    /**
+     * segment 模式下当前号段剩余比例低于该值时, 异步预取下一个号段
+     */
+    @Value("${hmdp.id.segment.refill-ratio:0.2}")
+    private double refillRatio;
+
+    /**
+     * snowflake 模式 worker id 租约时长 (秒), 每 1/3 租约时长续期一次
+     */
+    @Value("${hmdp.id.snowflake.lease-ttl:30}")
+    private long leaseTtl;
+
+    /**
+     * snowflake 模式逻辑时钟允许领先系统时钟的最大秒数, 必须小于租约时长
+     */
+    @Value("${hmdp.id.snowflake.max-drift:5}")
+    private long maxDrift;
 
     private StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * snowflake 模式的生成器, 租约丢失时为 null
+     */
+    private volatile SnowflakeIdGenerator snowflake;
+
+    /**
+     * 租约的本地有效期, 超过后在续期成功之前不再生成 id
+     */
+    private volatile long leaseDeadline;
+
+    /**
+     * 已停用的生成器用过的最大逻辑秒, 重新租用后的生成器从下一秒开始
+     */
+    private long usedSecond = -1;
+
+    private ScheduledExecutorService leaseRenewer;
+
+    /**
+     * keyPrefix -> 双号段缓冲
+     */
+    private final ConcurrentHashMap<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    private final ExecutorService segmentLoader = Executors.newSingleThreadExecutor();
+
+    /**
+     * 当天的日期串, 按天缓存, 避免每次生成 id 都格式化日期
+     */
+    private volatile CachedDate cachedDate = new CachedDate(Long.MIN_VALUE, null);
+
     public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
         this.stringRedisTemplate = stringRedisTemplate;
     }
 
-    public long nextId(String keyPrefix) { 
+    @PostConstruct
+    private void init() {
+        if (!"snowflake".equals(mode)) {
+            return;
+        }
+        if (maxDrift >= leaseTtl) {
+            throw new IllegalStateException("hmdp.id.snowflake.max-drift 必须小于 lease-ttl");
+        }
+        leaseWorker();
+        leaseRenewer = Executors.newSingleThreadScheduledExecutor();
+        long period = Math.max(leaseTtl / 3, 1);
+        leaseRenewer.scheduleWithFixedDelay(this::renewWorker, period, period, TimeUnit.SECONDS);
+    }
+
+    public long nextId(String keyPrefix) {
         // 1.生成时间戳
-        LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
+        long nowSecond = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
+        if ("snowflake".equals(mode)) {
+            return nextSnowflakeId(nowSecond);
+        }
         long timestamp = nowSecond - BEGIN_TIMESTAMP;
 
         // 2.生成序列号
         // 2.1.获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        String date = dateOf(nowSecond);
         // 2.2.自增长
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        long count = "segment".equals(mode)
+                ? nextSegmentCount(keyPrefix, date)
+                : stringRedisTemplate.opsForValue().increment(countKey(keyPrefix, date));
 
         // 3.拼接并返回
         return timestamp << COUNT_BITS | count;
     }
+
+    @PreDestroy
+    public void destroy() {
+        segmentLoader.shutdownNow();
+        if (leaseRenewer != null) {
+            leaseRenewer.shutdownNow();
+            SnowflakeIdGenerator generator = snowflake;
+            if (generator != null) {
+                stringRedisTemplate.execute(RELEASE_SCRIPT,
+                        Collections.singletonList(ID_WORKER_KEY + generator.getWorkerId()), INSTANCE_ID);
+            }
+        }
+    }
+
+    private long nextSnowflakeId(long nowSecond) {
+        SnowflakeIdGenerator generator = snowflake;
+        if (generator == null || System.currentTimeMillis() > leaseDeadline) {
+            // 租约可能已被其他实例拿到, 继续生成会产生重复 id
+            throw new IllegalStateException("worker id 租约不可用");
+        }
+        return generator.nextId(nowSecond);
+    }
+
+    /**
+     * 从随机位置开始依次尝试 SET NX EX 租用一个空闲的 worker id
+     */
+    private void leaseWorker() {
+        int start = ThreadLocalRandom.current().nextInt(SnowflakeIdGenerator.MAX_WORKERS);
+        for (int i = 0; i < SnowflakeIdGenerator.MAX_WORKERS; i++) {
+            int workerId = (start + i) % SnowflakeIdGenerator.MAX_WORKERS;
+            long now = System.currentTimeMillis();
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(ID_WORKER_KEY + workerId, INSTANCE_ID, leaseTtl, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                leaseDeadline = now + TimeUnit.SECONDS.toMillis(leaseTtl - maxDrift);
+                snowflake = new SnowflakeIdGenerator(workerId, maxDrift, usedSecond);
+                log.info("租用 worker id: {}", workerId);
+                return;
+            }
+        }
+        throw new IllegalStateException("没有空闲的 worker id");
+    }
+
+    private void renewWorker() {
+        try {
+            SnowflakeIdGenerator generator = snowflake;
+            if (generator != null) {
+                long now = System.currentTimeMillis();
+                Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT,
+                        Collections.singletonList(ID_WORKER_KEY + generator.getWorkerId()),
+                        INSTANCE_ID, String.valueOf(leaseTtl));
+                if (renewed != null && renewed == 1) {
+                    leaseDeadline = now + TimeUnit.SECONDS.toMillis(leaseTtl - maxDrift);
+                    return;
+                }
+                // 租约已丢失, 停止使用旧的 worker id, 记下逻辑时钟, 可能重新租到同一个 worker id
+                log.warn("worker id {} 租约丢失, 重新租用", generator.getWorkerId());
+                snowflake = null;
+                usedSecond = Math.max(usedSecond, generator.retire());
+            }
+            leaseWorker();
+        } catch (Exception e) {
+            log.error("续期 worker id 租约异常", e);
+        }
+    }
+
+    /**
+     * 从本地号段分配序列号, 号段用完时切换到预取好的下一个号段, 没有预取到则同步租用
+     */
+    private long nextSegmentCount(String keyPrefix, String date) {
+        SegmentBuffer buffer = buffers.computeIfAbsent(keyPrefix, k -> new SegmentBuffer());
+        while (true) {
+            Segment current = buffer.current;
+            // 1. 号段属于当天的计数器才能使用, 跨天后序列号重新从当天的 key 租用
+            if (current != null && current.date.equals(date)) {
+                long count = current.value.getAndIncrement();
+                if (count <= current.max) {
+                    // 2. 剩余不足时异步预取下一个号段, 同一时间只有一个预取任务
+                    if (current.max - count < step * refillRatio && buffer.next == null
+                            && buffer.loading.compareAndSet(false, true)) {
+                        prefetch(keyPrefix, date, buffer);
+                    }
+                    return count;
+                }
+            }
+            // 3. 号段不可用, 切换号段
+            synchronized (buffer) {
+                if (buffer.current != current) {
+                    // 其他线程已经切换过了
+                    continue;
+                }
+                Segment next = buffer.next;
+                buffer.next = null;
+                buffer.current = next != null && next.date.equals(date) ? next : lease(keyPrefix, date);
+            }
+        }
+    }
+
+    private void prefetch(String keyPrefix, String date, SegmentBuffer buffer) {
+        try {
+            segmentLoader.submit(() -> {
+                try {
+                    buffer.next = lease(keyPrefix, date);
+                } catch (Exception e) {
+                    log.error("预取 id 号段异常", e);
+                } finally {
+                    buffer.loading.set(false);
+                }
+            });
+        } catch (Exception e) {
+            // 关闭过程中提交失败, 号段用完时会同步租用
+            buffer.loading.set(false);
+        }
+    }
+
+    /**
+     * INCRBY 租用 [end - step + 1, end] 这一段序列号
+     */
+    private Segment lease(String keyPrefix, String date) {
+        long end = stringRedisTemplate.opsForValue().increment(countKey(keyPrefix, date), step);
+        return new Segment(date, end - step + 1, end);
+    }
+
+    private String dateOf(long nowSecond) {
+        long day = Math.floorDiv(nowSecond, SECONDS_PER_DAY);
+        CachedDate cached = cachedDate;
+        if (cached.day != day) {
+            cached = new CachedDate(day, LocalDate.ofEpochDay(day).format(DATE_FORMATTER));
+            cachedDate = cached;
+        }
+        return cached.date;
+    }
+
+    private static String countKey(String keyPrefix, String date) {
+        return "icr:" + keyPrefix + ":" + date;
+    }
+
+    private static class CachedDate {
+        private final long day;
+        private final String date;
+
+        private CachedDate(long day, String date) {
+            this.day = day;
+            this.date = date;
+        }
+    }
+
+    /**
+     * 一段租用的序列号 [value, max], 由 AtomicLong 无锁分配
+     */
+    private static class Segment {
+        private final String date;
+        private final AtomicLong value;
+        private final long max;
+
+        private Segment(String date, long start, long max) {
+            this.date = date;
+            this.value = new AtomicLong(start);
+            this.max = max;
+        }
+    }
+
+    /**
+     * 当前号段与预取的下一个号段
+     */
+    private static class SegmentBuffer {
+        private volatile Segment current;
+        private volatile Segment next;
+        private final AtomicBoolean loading = new AtomicBoolean();
+    }
 }
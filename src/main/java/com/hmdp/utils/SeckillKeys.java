@@ -0,0 +1,74 @@
+package com.hmdp.utils;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_META_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DEAD_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * SeckillKeys 秒杀相关 key 的布局. 优惠券按 voucherId 取模分到订单队列分区, 库存、下单用户与订单队列
+ * 使用同一个分区哈希标签 {p}, 保证一次 lua 脚本访问的 key 都在同一个 slot 上;
+ * 分区数固定, 订单队列的数量也固定, 消费者只需订阅 stream.orders:{0} ~ stream.orders:{p-1}
+**/
+public class SeckillKeys {
+
+    private SeckillKeys() {
+    }
+
+    /**
+     * 分区的哈希标签, Redis Cluster 只对 {} 内的部分计算 slot
+     */
+    public static String tag(int partition) {
+        return "{" + partition + "}";
+    }
+
+    /**
+     * 分区的订单队列 stream.orders:{p}
+     */
+    public static String streamKey(int partition) {
+        return SECKILL_ORDER_STREAM_KEY + tag(partition);
+    }
+
+    /**
+     * 分区的死信队列 stream.orders.dead:{p}, 保存重试次数用完仍无法处理的订单消息
+     */
+    public static String deadLetterKey(int partition) {
+        return SECKILL_ORDER_DEAD_STREAM_KEY + tag(partition);
+    }
+
+    /**
+     * 优惠券库存 seckill:stock:{p}:voucherId
+     */
+    public static String stockKey(int partition, Long voucherId) {
+        return SECKILL_STOCK_KEY + tag(partition) + ":" + voucherId;
+    }
+
+    /**
+     * 优惠券分桶库存 seckill:stock:{p}:voucherId:shard
+     */
+    public static String stockKey(int partition, Long voucherId, int shard) {
+        return stockKey(partition, voucherId) + ":" + shard;
+    }
+
+    /**
+     * 优惠券下单用户 seckill:order:{p}:voucherId
+     */
+    public static String orderKey(int partition, Long voucherId) {
+        return SECKILL_ORDER_KEY + tag(partition) + ":" + voucherId;
+    }
+
+    /**
+     * 优惠券分桶下单用户 seckill:order:{p}:voucherId:shard
+     */
+    public static String orderKey(int partition, Long voucherId, int shard) {
+        return orderKey(partition, voucherId) + ":" + shard;
+    }
+
+    /**
+     * 优惠券元数据 seckill:meta:{p}:voucherId, 每个分桶所在的分区各有一份
+     */
+    public static String metaKey(int partition, Long voucherId) {
+        return SECKILL_META_KEY + tag(partition) + ":" + voucherId;
+    }
+}
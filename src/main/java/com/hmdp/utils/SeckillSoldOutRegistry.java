@@ -0,0 +1,110 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_RESET_CHANNEL;
+
+/**
+ * SeckillSoldOutRegistry 本地售罄标记. 优惠券售罄后直接在本地拒绝请求, 不再执行 lua 脚本;
+ * 售罄与补货通过 Redis 发布订阅同步到所有实例
+**/
+@Slf4j
+@Component
+public class SeckillSoldOutRegistry implements MessageListener {
+
+    /**
+     * 售罄标记的复查间隔, 每个间隔放行一个请求到 Redis 确认库存, 防止标记因消息乱序而无法清除
+     */
+    private static final long RECHECK_INTERVAL_MILLIS = 1000L;
+
+    /**
+     * voucherId -> 标记售罄 (或最近一次复查) 的时间
+     */
+    private final ConcurrentHashMap<Long, AtomicLong> soldOutVouchers = new ConcurrentHashMap<>();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, Arrays.asList(
+                new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL), new ChannelTopic(SECKILL_STOCK_RESET_CHANNEL)));
+    }
+
+    /**
+     * 判断优惠券是否已售罄
+     * @return true 代表已售罄, 可以直接拒绝; false 代表需要执行 lua 脚本
+     */
+    public boolean isSoldOut(Long voucherId) {
+        AtomicLong markedAt = soldOutVouchers.get(voucherId);
+        if (markedAt == null) {
+            return false;
+        }
+        long last = markedAt.get();
+        long now = System.currentTimeMillis();
+        if (now - last < RECHECK_INTERVAL_MILLIS) {
+            return true;
+        }
+        // 超过复查间隔, 只放行抢到复查机会的一个请求
+        return !markedAt.compareAndSet(last, now);
+    }
+
+    /**
+     * 标记售罄, 并通知其他实例
+     */
+    public void markSoldOut(Long voucherId) {
+        AtomicLong markedAt = soldOutVouchers.putIfAbsent(voucherId, new AtomicLong(System.currentTimeMillis()));
+        if (markedAt != null) {
+            // 已经标记过, 只刷新复查时间
+            markedAt.set(System.currentTimeMillis());
+            return;
+        }
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, voucherId.toString());
+    }
+
+    /**
+     * 清除售罄标记 (补货), 并通知其他实例
+     */
+    public void reset(Long voucherId) {
+        soldOutVouchers.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_STOCK_RESET_CHANNEL, voucherId.toString());
+    }
+
+    /**
+     * 复查发现仍有库存时调用, 只有本地存在标记时才需要通知其他实例
+     */
+    public void resetIfMarked(Long voucherId) {
+        if (soldOutVouchers.containsKey(voucherId)) {
+            reset(voucherId);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        Long voucherId = Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8));
+        if (SECKILL_SOLD_OUT_CHANNEL.equals(channel)) {
+            soldOutVouchers.putIfAbsent(voucherId, new AtomicLong(System.currentTimeMillis()));
+        } else {
+            soldOutVouchers.remove(voucherId);
+        }
+        log.debug("秒杀售罄标记同步: channel = {}, voucherId = {}", channel, voucherId);
+    }
+}
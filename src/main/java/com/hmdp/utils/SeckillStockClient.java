@@ -0,0 +1,273 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.map.MapUtil;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.hmdp.entity.SeckillVoucher;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_META_LOCAL_SIZE;
+import static com.hmdp.utils.RedisConstants.SECKILL_META_LOCAL_TTL;
+import static com.hmdp.utils.RedisConstants.SECKILL_META_NULL_TTL;
+
+/**
+ * SeckillStockClient 秒杀库存的 Redis 读写. 开启分桶后, 一张优惠券的库存被拆成 K 个分桶 key,
+ * 第 k 个分桶放在优惠券分区之后的第 k 个分区, 即不同的 slot 上; 用户按 id 哈希到归属分桶,
+ * 归属分桶库存不足时再到其他分桶扣减. 每次脚本访问的 key 都属于同一个分区, 可以在集群上执行.
+ * 优惠券的秒杀时间与分桶数作为元数据写入各分桶所在分区的哈希 seckill:meta:{p}:voucherId, 脚本按 Redis
+ * 服务器时间校验时间窗口, 窗口外的请求不会扣减库存也不会进入订单队列
+**/
+@Slf4j
+@Component
+public class SeckillStockClient {
+
+    /**
+     * 抢购成功
+     */
+    public static final int SUCCESS = 0;
+    /**
+     * 库存不足
+     */
+    public static final int NO_STOCK = 1;
+    /**
+     * 重复下单
+     */
+    public static final int DUPLICATE = 2;
+    /**
+     * 归属分桶库存不足, 仅在分桶模式内部使用
+     */
+    private static final int SHARD_NO_STOCK = 3;
+    /**
+     * 秒杀尚未开始
+     */
+    public static final int NOT_STARTED = 4;
+    /**
+     * 秒杀已经结束
+     */
+    public static final int ENDED = 5;
+
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<Long> SECKILL_SHARD_SCRIPT;
+    private static final DefaultRedisScript<Long> SECKILL_TAKE_SCRIPT;
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+        SECKILL_SHARD_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SHARD_SCRIPT.setLocation(new ClassPathResource("seckill_shard.lua"));
+        SECKILL_SHARD_SCRIPT.setResultType(Long.class);
+        SECKILL_TAKE_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_TAKE_SCRIPT.setLocation(new ClassPathResource("seckill_take.lua"));
+        SECKILL_TAKE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 新增秒杀券时的库存分桶数, 1 代表不分桶
+     */
+    @Value("${hmdp.seckill.stock-shards:1}")
+    private int stockShards;
+
+    /**
+     * 订单队列的分区数, 与订单消费者保持一致
+     */
+    @Value("${hmdp.seckill.order.partitions:4}")
+    private int partitions;
+
+    /**
+     * voucherId -> 元数据, 优惠券创建后元数据不会再变化. 按容量淘汰, 长时间不访问的优惠券过期
+     */
+    private final Cache<Long, SeckillVoucherMeta> metaCache = CacheBuilder.newBuilder()
+            .maximumSize(SECKILL_META_LOCAL_SIZE)
+            .expireAfterAccess(SECKILL_META_LOCAL_TTL, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * 数据库中也不存在的 voucherId, 短时间内直接返回 null, 不存在的 id 不会每次都查询 Redis 与数据库.
+     * 本实例新增优惠券时立即删除, 其他实例最多在过期时间内仍认为不存在
+     */
+    private final Cache<Long, Boolean> missingMeta = CacheBuilder.newBuilder()
+            .maximumSize(SECKILL_META_LOCAL_SIZE)
+            .expireAfterWrite(SECKILL_META_NULL_TTL, TimeUnit.SECONDS)
+            .build();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 按配置的分桶数写入秒杀库存与元数据
+     */
+    public void initStock(SeckillVoucher voucher) {
+        initStock(voucher, stockShards);
+    }
+
+    public void initStock(SeckillVoucher voucher, int shards) {
+        Long voucherId = voucher.getVoucherId();
+        int stock = voucher.getStock();
+        shards = Math.max(shards, 1);
+        if (shards == 1) {
+            stringRedisTemplate.opsForValue().set(
+                    SeckillKeys.stockKey(partitionOf(voucherId), voucherId), String.valueOf(stock));
+        } else {
+            // 库存平均拆分到各分桶, 余数分给前面的分桶
+            for (int shard = 0; shard < shards; shard++) {
+                int shardStock = stock / shards + (shard < stock % shards ? 1 : 0);
+                stringRedisTemplate.opsForValue().set(
+                        SeckillKeys.stockKey(partitionOf(voucherId, shard), voucherId, shard), String.valueOf(shardStock));
+            }
+        }
+        SeckillVoucherMeta meta = new SeckillVoucherMeta();
+        meta.setBeginTime(toEpochMilli(voucher.getBeginTime()));
+        meta.setEndTime(toEpochMilli(voucher.getEndTime()));
+        meta.setShards(shards);
+        publishMeta(voucherId, meta);
+    }
+
+    /**
+     * 查询优惠券元数据: 本地缓存 -> Redis -> 数据库, 从数据库加载后回写 Redis, 不存在的结果在本地短暂缓存
+     * @return 优惠券不存在时返回 null
+     */
+    public SeckillVoucherMeta queryMeta(Long voucherId, Function<Long, SeckillVoucher> dbFallback) {
+        SeckillVoucherMeta meta = metaCache.getIfPresent(voucherId);
+        if (meta != null) {
+            return meta;
+        }
+        if (missingMeta.getIfPresent(voucherId) != null) {
+            return null;
+        }
+        // 1. 分桶 0 与未分桶的库存都在优惠券分区, 元数据总能在该分区找到
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash()
+                .entries(SeckillKeys.metaKey(partitionOf(voucherId), voucherId));
+        if (MapUtil.isNotEmpty(entries)) {
+            meta = new SeckillVoucherMeta();
+            meta.setBeginTime(Long.parseLong((String) entries.get("begin")));
+            meta.setEndTime(Long.parseLong((String) entries.get("end")));
+            meta.setShards(Integer.parseInt((String) entries.get("shards")));
+            metaCache.put(voucherId, meta);
+            return meta;
+        }
+        // 2. 元数据缺失 (如优惠券早于本功能创建), 从数据库加载, 库存分桶只能由 initStock 决定, 按未分桶处理
+        SeckillVoucher voucher = dbFallback.apply(voucherId);
+        if (voucher == null) {
+            missingMeta.put(voucherId, Boolean.TRUE);
+            return null;
+        }
+        meta = new SeckillVoucherMeta();
+        meta.setBeginTime(toEpochMilli(voucher.getBeginTime()));
+        meta.setEndTime(toEpochMilli(voucher.getEndTime()));
+        meta.setShards(1);
+        publishMeta(voucherId, meta);
+        return meta;
+    }
+
+    /**
+     * 判断购买资格, 有资格时扣减 Redis 库存并把订单写入队列
+     * @return SUCCESS, NO_STOCK, DUPLICATE, NOT_STARTED 或 ENDED
+     */
+    public int seckill(SeckillVoucherMeta meta, Long voucherId, Long userId, long orderId) {
+        int shards = meta.getShards();
+        if (shards <= 1) {
+            int partition = partitionOf(voucherId);
+            Long result = stringRedisTemplate.execute(
+                    SECKILL_SCRIPT,
+                    Arrays.asList(
+                            SeckillKeys.stockKey(partition, voucherId),
+                            SeckillKeys.orderKey(partition, voucherId),
+                            SeckillKeys.streamKey(partition),
+                            SeckillKeys.metaKey(partition, voucherId)),
+                    voucherId.toString(), userId.toString(), String.valueOf(orderId)
+            );
+            return result.intValue();
+        }
+
+        // 1. 在归属分桶校验一人一单并扣减库存
+        int home = Math.floorMod(userId.hashCode(), shards);
+        int homePartition = partitionOf(voucherId, home);
+        String orderKey = SeckillKeys.orderKey(homePartition, voucherId, home);
+        Long result = stringRedisTemplate.execute(
+                SECKILL_SHARD_SCRIPT,
+                Arrays.asList(
+                        SeckillKeys.stockKey(homePartition, voucherId, home),
+                        orderKey,
+                        SeckillKeys.streamKey(homePartition),
+                        SeckillKeys.metaKey(homePartition, voucherId)),
+                voucherId.toString(), userId.toString(), String.valueOf(orderId)
+        );
+        int r = result.intValue();
+        if (r != SHARD_NO_STOCK) {
+            return r;
+        }
+
+        // 2. 归属分桶库存不足, 下单资格已占用, 依次到其他分桶扣减
+        for (int i = 1; i < shards; i++) {
+            int shard = (home + i) % shards;
+            int partition = partitionOf(voucherId, shard);
+            result = stringRedisTemplate.execute(
+                    SECKILL_TAKE_SCRIPT,
+                    Arrays.asList(
+                            SeckillKeys.stockKey(partition, voucherId, shard),
+                            SeckillKeys.streamKey(partition),
+                            SeckillKeys.metaKey(partition, voucherId)),
+                    voucherId.toString(), userId.toString(), String.valueOf(orderId)
+            );
+            r = result.intValue();
+            if (r == SUCCESS) {
+                return SUCCESS;
+            }
+            if (r == ENDED) {
+                // 扣减过程中秒杀结束, 不再尝试其他分桶
+                break;
+            }
+        }
+
+        // 3. 所有分桶都没有库存, 撤销占用的下单资格
+        stringRedisTemplate.opsForSet().remove(orderKey, userId.toString());
+        return r == ENDED ? ENDED : NO_STOCK;
+    }
+
+    /**
+     * 优惠券所在的分区, 未分桶时同一张优惠券的订单总是进入同一个分区
+     */
+    public int partitionOf(Long voucherId) {
+        return (int) (voucherId % partitions);
+    }
+
+    /**
+     * 优惠券第 shard 个分桶所在的分区, 各分桶依次错开, 落在不同的 slot 上
+     */
+    public int partitionOf(Long voucherId, int shard) {
+        return (partitionOf(voucherId) + shard) % partitions;
+    }
+
+    /**
+     * 元数据写入各分桶所在的分区, 保证脚本只访问同一个 slot 上的 key
+     */
+    private void publishMeta(Long voucherId, SeckillVoucherMeta meta) {
+        Map<String, String> entries = new HashMap<>(4);
+        entries.put("begin", String.valueOf(meta.getBeginTime()));
+        entries.put("end", String.valueOf(meta.getEndTime()));
+        entries.put("shards", String.valueOf(meta.getShards()));
+        for (int shard = 0; shard < Math.min(meta.getShards(), partitions); shard++) {
+            stringRedisTemplate.opsForHash().putAll(SeckillKeys.metaKey(partitionOf(voucherId, shard), voucherId), entries);
+        }
+        metaCache.put(voucherId, meta);
+        missingMeta.invalidate(voucherId);
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,22 @@
+package com.hmdp.utils;
+
+import lombok.Data;
+
+/**
+ * SeckillVoucherMeta 秒杀券在抢购热路径上需要的元数据, 发布到 Redis 哈希并缓存在本地
+**/
+@Data
+public class SeckillVoucherMeta {
+    /**
+     * 秒杀开始时间, 毫秒时间戳
+     */
+    private long beginTime;
+    /**
+     * 秒杀结束时间, 毫秒时间戳
+     */
+    private long endTime;
+    /**
+     * 库存分桶数
+     */
+    private int shards;
+}
@@ -0,0 +1,59 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * SingleFlight 合并同一个 JVM 内对同一个 key 的并发加载. 第一个请求成为 leader 执行加载,
+ * 其他请求等待 leader 的结果, 不再各自轮询或加锁
+**/
+public class SingleFlight {
+
+    /**
+     * key -> 正在进行的加载
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> flights = new ConcurrentHashMap<>();
+
+    /**
+     * 执行或等待 key 的加载
+     * @param timeout 等待 leader 结果的最长时间, 超时抛出 IllegalStateException
+     */
+    @SuppressWarnings("unchecked")
+    public <R> R execute(String key, Supplier<R> loader, long timeout, TimeUnit unit) {
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> existing = flights.putIfAbsent(key, flight);
+        if (existing != null) {
+            // 1. 已有进行中的加载, 等待结果
+            return (R) await(key, existing, timeout, unit);
+        }
+        // 2. 当前线程是 leader, 执行加载并唤醒所有等待者
+        try {
+            R r = loader.get();
+            flight.complete(r);
+            return r;
+        } catch (RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    private Object await(String key, CompletableFuture<Object> flight, long timeout, TimeUnit unit) {
+        try {
+            return flight.get(timeout, unit);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("等待加载超时: " + key, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.hmdp.utils;
+
+/**
+ * SnowflakeIdGenerator 本地 id 生成器, 不访问网络. id 结构与 RedisIdWorker 保持一致, 高 32 位是秒级时间戳,
+ * 低 32 位拆成 10 位 worker id 和 22 位序列号, 每个 worker 每秒最多 4194304 个 id.
+ * 时钟回拨或者当前秒的序列号用完时, 继续使用 (或借用) 上一个逻辑秒, 但最多领先系统时钟 maxDriftSeconds 秒,
+ * 超过时拒绝生成, 以免 worker id 租约过期被其他实例拿到后生成重复的 id
+**/
+public class SnowflakeIdGenerator {
+    /**
+     * 开始时间戳
+     */
+    private static final long BEGIN_TIMESTAMP = 1640995200L;
+    /**
+     * worker id 的位数
+     */
+    public static final int WORKER_BITS = 10;
+    /**
+     * 序列号的位数
+     */
+    private static final int SEQUENCE_BITS = 22;
+    /**
+     * 最大 worker 数量
+     */
+    public static final int MAX_WORKERS = 1 << WORKER_BITS;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final long workerId;
+
+    private final long maxDriftSeconds;
+
+    /**
+     * 上一个 id 使用的逻辑秒
+     */
+    private long lastSecond = -1;
+
+    private long sequence;
+
+    /**
+     * 已停用, 不再生成 id
+     */
+    private boolean retired;
+
+    public SnowflakeIdGenerator(long workerId, long maxDriftSeconds) {
+        this(workerId, maxDriftSeconds, -1);
+    }
+
+    /**
+     * @param usedSecond 之前的生成器用过的最大逻辑秒, 新生成器从下一秒开始, 重新租到同一个 worker id 时不会重复
+     */
+    public SnowflakeIdGenerator(long workerId, long maxDriftSeconds, long usedSecond) {
+        if (workerId < 0 || workerId >= MAX_WORKERS) {
+            throw new IllegalArgumentException("worker id 超出范围: " + workerId);
+        }
+        this.workerId = workerId;
+        this.maxDriftSeconds = maxDriftSeconds;
+        if (usedSecond >= 0) {
+            // 视为 usedSecond 的序列号已用完, 下一个 id 借用 usedSecond + 1
+            this.lastSecond = usedSecond;
+            this.sequence = SEQUENCE_MASK;
+        }
+    }
+
+    public long getWorkerId() {
+        return workerId;
+    }
+
+    /**
+     * 停用生成器, 之后的 nextId 抛出异常
+     * @return 用过的最大逻辑秒, 没有生成过 id 时为 -1
+     */
+    public synchronized long retire() {
+        retired = true;
+        return lastSecond;
+    }
+
+    /**
+     * @param nowSecond 当前时间, 与 RedisIdWorker 相同, 为 LocalDateTime.now().toEpochSecond(ZoneOffset.UTC)
+     */
+    public synchronized long nextId(long nowSecond) {
+        if (retired) {
+            throw new IllegalStateException("worker id 租约不可用");
+        }
+        // 1. 逻辑时钟不回退: 时钟回拨时沿用上一个逻辑秒
+        long second = Math.max(nowSecond, lastSecond);
+        long seq = 0;
+        if (second == lastSecond) {
+            seq = (sequence + 1) & SEQUENCE_MASK;
+            if (seq == 0) {
+                // 2. 当前秒的序列号用完, 借用下一秒
+                second++;
+            }
+        }
+        // 3. 逻辑时钟领先太多, 拒绝生成
+        if (second - nowSecond > maxDriftSeconds) {
+            throw new IllegalStateException("时钟回拨或 id 生成过快, 逻辑时钟领先 " + (second - nowSecond) + " 秒");
+        }
+        lastSecond = second;
+        sequence = seq;
+        // 4. 拼接并返回
+        return (second - BEGIN_TIMESTAMP) << (WORKER_BITS + SEQUENCE_BITS) | workerId << SEQUENCE_BITS | seq;
+    }
+}
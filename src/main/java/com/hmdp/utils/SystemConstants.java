@@ -5,4 +5,10 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    public static final int BLOOM_LOAD_BATCH_SIZE = 1000;
+    public static final int GEO_LOAD_BATCH_SIZE = 5000;
+    public static final int NAME_LOAD_BATCH_SIZE = 5000;
+    public static final double SHOP_GEO_RADIUS = 5000;
+    public static final double SHOP_GEO_CELL_DEGREES = 0.01;
+    public static final int SHOP_GEO_CELL_MAX_CANDIDATES = 1000;
 }
@@ -0,0 +1,12 @@
+-- 缓存失效事件 (事务发件箱), 与业务数据在同一个事务中写入, 提交后由 CacheOutboxServiceImpl 删除缓存
+CREATE TABLE IF NOT EXISTS `tb_cache_outbox` (
+  `id` bigint(20) unsigned NOT NULL AUTO_INCREMENT COMMENT '主键',
+  `key_prefix` varchar(64) NOT NULL COMMENT '缓存 key 前缀',
+  `biz_id` varchar(64) NOT NULL COMMENT '业务 id, 与前缀拼接为缓存 key',
+  `status` tinyint(1) unsigned NOT NULL DEFAULT '0' COMMENT '0 待删除; 1 已删除一次, 等待延迟双删; 2 重试次数用完',
+  `retry_count` int(10) unsigned NOT NULL DEFAULT '0' COMMENT '删除失败的重试次数',
+  `next_time` datetime NOT NULL COMMENT '下次处理时间',
+  `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+  PRIMARY KEY (`id`) USING BTREE,
+  KEY `idx_status_next_time` (`status`, `next_time`) USING BTREE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 ROW_FORMAT=COMPACT COMMENT='缓存失效事件';
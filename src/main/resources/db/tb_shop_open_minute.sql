@@ -0,0 +1,13 @@
+-- 营业时间解析为分钟数, 没有坐标的分类查询按营业中过滤时在 SQL 中判断
+-- 新增与修改店铺时由 ShopServiceImpl 按 OpenHours.parse 写入, 已有数据按相同规则回填
+ALTER TABLE `tb_shop`
+  ADD COLUMN `open_minute` smallint(6) NOT NULL DEFAULT '-1' COMMENT '开始营业的分钟数, -1 未知',
+  ADD COLUMN `close_minute` smallint(6) NOT NULL DEFAULT '-1' COMMENT '结束营业的分钟数, 早于开始代表营业到次日, -1 未知';
+
+-- 格式为 HH:mm-HH:mm, 分隔符可以是 - 或 ~, 24:00 即次日 0 点; 无法解析的保持 -1
+UPDATE `tb_shop`
+SET `open_minute` = SUBSTRING_INDEX(SUBSTRING_INDEX(REPLACE(REPLACE(`open_hours`, ' ', ''), '~', '-'), '-', 1), ':', 1) * 60 % 1440
+                  + SUBSTRING_INDEX(SUBSTRING_INDEX(REPLACE(REPLACE(`open_hours`, ' ', ''), '~', '-'), '-', 1), ':', -1),
+    `close_minute` = SUBSTRING_INDEX(SUBSTRING_INDEX(REPLACE(REPLACE(`open_hours`, ' ', ''), '~', '-'), '-', -1), ':', 1) * 60 % 1440
+                   + SUBSTRING_INDEX(SUBSTRING_INDEX(REPLACE(REPLACE(`open_hours`, ' ', ''), '~', '-'), '-', -1), ':', -1)
+WHERE REPLACE(REPLACE(`open_hours`, ' ', ''), '~', '-') REGEXP '^([01]?[0-9]|2[0-4]):[0-5]?[0-9]-([01]?[0-9]|2[0-4]):[0-5]?[0-9]$';
@@ -0,0 +1,6 @@
+-- 续期 worker id 租约, 只有租约仍属于当前实例时才续期
+-- KEYS[1] worker id key, ARGV[1] 实例标识, ARGV[2] 租约时长 (秒)
+if (redis.call('GET', KEYS[1]) == ARGV[1]) then
+    return redis.call('EXPIRE', KEYS[1], ARGV[2])
+end
+return 0
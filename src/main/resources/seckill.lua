@@ -1,32 +1,50 @@
--- 1. 参数列表
--- 1.1 优惠券 id
+-- 1. 参数列表, 所有 key 使用同一个分区哈希标签, 位于同一个 slot
+-- 1.1 库存 key
+local stockKey = KEYS[1]
+-- 1.2 订单 key
+local orderKey = KEYS[2]
+-- 1.3 订单队列 key
+local streamKey = KEYS[3]
+-- 1.4 优惠券元数据 key
+local metaKey = KEYS[4]
+-- 1.5 优惠券 id
 local voucherId = ARGV[1]
--- 1.2 用户 id
+-- 1.6 用户 id
 local userId = ARGV[2]
--- 1.3 订单 id 
+-- 1.7 订单 id 
 local orderId = ARGV[3]
 
--- 2. 数据 key
--- 2.1 库存 key
-local stockKey = 'seckill:stock:' .. voucherId
--- 2.2 订单 key
-local orderKey = 'seckill:order:' .. voucherId
-
--- 3. 脚本业务
--- 3.1 判断库存是否充足 get stockKey
-if (tonumber(redis.call('GET', stockKey)) <= 0) then
-    -- 3.2 库存不足, 返回 1
+-- 2. 脚本业务
+-- 2.1 校验秒杀时间窗口, 以 Redis 服务器时间为准
+redis.replicate_commands()
+local window = redis.call('HMGET', metaKey, 'begin', 'end')
+if (window[1]) then
+    local time = redis.call('TIME')
+    local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    if (now < tonumber(window[1])) then
+        -- 尚未开始, 返回 4
+        return 4
+    end
+    if (now > tonumber(window[2])) then
+        -- 已经结束, 返回 5
+        return 5
+    end
+end
+-- 2.2 判断库存是否充足 get stockKey
+local stock = tonumber(redis.call('GET', stockKey))
+if (stock == nil or stock <= 0) then
+    -- 库存不足, 返回 1
     return 1
 end 
--- 3.2 判断用户是否下单 SISMEMBER orderKey userId
+-- 2.3 判断用户是否下单 SISMEMBER orderKey userId
 if (redis.call('SISMEMBER', orderKey, userId) == 1) then
-    -- 3.3 存在, 说明是重复下单, 返回 2
+    -- 存在, 说明是重复下单, 返回 2
     return 2
 end
--- 3.4 扣库存 INCRBY stockKey -1
+-- 2.4 扣库存 INCRBY stockKey -1
 redis.call('INCRBY', stockKey, -1)
--- 3.5 下单 (保存用户) SADD orderKey userId
+-- 2.5 下单 (保存用户) SADD orderKey userId
 redis.call('SADD', orderKey, userId)
--- 3.6 发送消息到队列中, XADD stream.orders * k1 v1 k2 v2 ...
-redis.call('XADD', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
-return 0
\ No newline at end of file
+-- 2.6 发送消息到队列中, XADD streamKey * k1 v1 k2 v2 ...
+redis.call('XADD', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+return 0
@@ -0,0 +1,42 @@
+-- 归属分桶库存不足时, 从其他分桶扣减库存 (一人一单已在归属分桶校验)
+-- 1. 参数列表
+-- 1.1 分桶库存 key
+local stockKey = KEYS[1]
+-- 1.2 订单队列 key
+local streamKey = KEYS[2]
+-- 1.3 优惠券元数据 key (该分桶所在分区的副本)
+local metaKey = KEYS[3]
+-- 1.4 优惠券 id
+local voucherId = ARGV[1]
+-- 1.5 用户 id
+local userId = ARGV[2]
+-- 1.6 订单 id
+local orderId = ARGV[3]
+
+-- 2. 脚本业务
+-- 2.1 校验秒杀时间窗口, 以 Redis 服务器时间为准
+redis.replicate_commands()
+local window = redis.call('HMGET', metaKey, 'begin', 'end')
+if (window[1]) then
+    local time = redis.call('TIME')
+    local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    if (now < tonumber(window[1])) then
+        -- 尚未开始, 返回 4
+        return 4
+    end
+    if (now > tonumber(window[2])) then
+        -- 已经结束, 返回 5
+        return 5
+    end
+end
+-- 2.2 判断分桶库存是否充足
+local stock = tonumber(redis.call('GET', stockKey))
+if (stock == nil or stock <= 0) then
+    -- 库存不足, 返回 1
+    return 1
+end
+-- 2.3 扣库存 INCRBY stockKey -1
+redis.call('INCRBY', stockKey, -1)
+-- 2.4 发送消息到队列中, XADD streamKey * k1 v1 k2 v2 ...
+redis.call('XADD', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+return 0
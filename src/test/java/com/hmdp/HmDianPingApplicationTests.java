@@ -1,29 +1,76 @@
 package com.hmdp;
 
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+import static com.hmdp.utils.RedisConstants.ID_WORKER_KEY;
 import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import javax.annotation.Resource;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.Point;
 import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.domain.geo.GeoReference;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.annotation.Transactional;
 
+import com.hmdp.dto.CacheStatsDTO;
+import com.hmdp.dto.CacheWarmUpDTO;
+import com.hmdp.dto.CursorResult;
+import com.hmdp.dto.ShopFilterDTO;
+import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.entity.Voucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ICacheOutboxService;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
 import com.hmdp.service.impl.ShopServiceImpl;
+import com.hmdp.utils.BinaryCacheCodec;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.CacheRebuildScheduler;
+import com.hmdp.utils.GeoGridIndex;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.OpenHours;
+import com.hmdp.utils.RedisBloomFilter;
+import com.hmdp.utils.RedisGeoIndex;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SeckillStockClient;
+import com.hmdp.utils.SeckillVoucherMeta;
+import com.hmdp.utils.SnowflakeIdGenerator;
+import com.hmdp.utils.SystemConstants;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.RandomUtil;
 
 @SpringBootTest
 class HmDianPingApplicationTests {
@@ -40,6 +87,30 @@ class HmDianPingApplicationTests {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private SeckillStockClient seckillStockClient;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private IVoucherService voucherService;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private ICacheOutboxService cacheOutboxService;
+
+    @Resource
+    private CacheRebuildScheduler cacheRebuildScheduler;
+
     private ExecutorService ex = Executors.newFixedThreadPool(500);
 
     @Test
@@ -63,6 +134,350 @@ class HmDianPingApplicationTests {
         System.out.println("time = " + (end - begin));
     }
 
+    // 对比 incr / segment / snowflake 三种 id 生成方式的单线程 ns/op 与多线程吞吐.
+    // snowflake 通过 RedisIdWorker 租用 worker id, 每轮之后续期, 最后验证租约过期后拒绝生成
+    @Test
+    void testIdWorkerModes() throws InterruptedException {
+        int[] threadCounts = {1, 8, 64};
+        int total = 200_000;
+        Object configured = ReflectionTestUtils.getField(redisIdWorker, "mode");
+        boolean leased = ReflectionTestUtils.getField(redisIdWorker, "snowflake") != null;
+        for (String mode : new String[]{"incr", "segment", "snowflake"}) {
+            ReflectionTestUtils.setField(redisIdWorker, "mode", mode);
+            if ("snowflake".equals(mode) && !leased) {
+                ReflectionTestUtils.invokeMethod(redisIdWorker, "leaseWorker");
+            }
+            for (int threads : threadCounts) {
+                int perThread = total / threads;
+                CountDownLatch latch = new CountDownLatch(threads);
+                Runnable task = () -> {
+                    for (int i = 0; i < perThread; i++) {
+                        redisIdWorker.nextId("bench");
+                    }
+                    latch.countDown();
+                };
+                long begin = System.nanoTime();
+                for (int i = 0; i < threads; i++) {
+                    ex.submit(task);
+                }
+                latch.await();
+                long time = System.nanoTime() - begin;
+                long count = (long) perThread * threads;
+                System.out.println("mode = " + mode + ", threads = " + threads + ", " + time / count + " ns/op, "
+                        + count * 1_000_000_000L / time + " ops/s");
+                if ("snowflake".equals(mode)) {
+                    ReflectionTestUtils.invokeMethod(redisIdWorker, "renewWorker");
+                }
+            }
+        }
+        // 租约的本地有效期已过, 续期成功之前拒绝生成
+        ReflectionTestUtils.setField(redisIdWorker, "leaseDeadline", 0L);
+        assertThrows(IllegalStateException.class, () -> redisIdWorker.nextId("bench"));
+        ReflectionTestUtils.invokeMethod(redisIdWorker, "renewWorker");
+        System.out.println("renewed, id = " + redisIdWorker.nextId("bench"));
+        if (!leased) {
+            SnowflakeIdGenerator generator = (SnowflakeIdGenerator) ReflectionTestUtils.getField(redisIdWorker, "snowflake");
+            stringRedisTemplate.delete(ID_WORKER_KEY + generator.getWorkerId());
+            ReflectionTestUtils.setField(redisIdWorker, "snowflake", null);
+        }
+        ReflectionTestUtils.setField(redisIdWorker, "mode", configured);
+    }
+
+    // 对比逐条下单与批量下单的吞吐, 并验证批量下单的批内去重、一人一单与库存不足时按剩余库存扣减.
+    // 在测试事务中执行, 结束后回滚订单与库存
+    @Test
+    @Transactional
+    void testVoucherOrderBatch() {
+        int total = 1000;
+        int batchSize = 50;
+        int shortage = 25;
+        long voucherId = 10L;
+        // 库存足够逐条下单的全部订单, 批量下单时少 shortage 个
+        seckillVoucherService.update().set("stock", total * 2 - shortage).eq("voucher_id", voucherId).update();
+        int before = voucherOrderService.query().eq("voucher_id", voucherId).count();
+
+        // 1. 逐条下单: 每单一次 COUNT、一次扣库存、一次 INSERT
+        List<VoucherOrder> singleOrders = mockVoucherOrders(voucherId, total);
+        long begin = System.currentTimeMillis();
+        singleOrders.forEach(voucherOrderService::createVoucherOrder);
+        long singleTime = System.currentTimeMillis() - begin;
+        assertEquals(before + total, voucherOrderService.query().eq("voucher_id", voucherId).count());
+
+        // 2. 批量下单: 每批一次查重、每张券一次扣库存、一次 JDBC batch.
+        // 每批再混入 5 个批内重复的订单与 5 个逐条下单时已经存在的订单, 都不能插入
+        List<VoucherOrder> batchOrders = mockVoucherOrders(voucherId, total);
+        List<List<VoucherOrder>> batches = new ArrayList<>();
+        for (List<VoucherOrder> chunk : CollUtil.split(batchOrders, batchSize)) {
+            List<VoucherOrder> orders = new ArrayList<>(chunk);
+            for (int i = 0; i < 5; i++) {
+                orders.add(copyVoucherOrder(chunk.get(i)));
+                orders.add(copyVoucherOrder(singleOrders.get(RandomUtil.randomInt(total))));
+            }
+            Collections.shuffle(orders);
+            batches.add(orders);
+        }
+        begin = System.currentTimeMillis();
+        batches.forEach(voucherOrderService::createVoucherOrders);
+        long batchTime = System.currentTimeMillis() - begin;
+
+        System.out.println("single: " + singleTime + " ms, " + total * 1000L / Math.max(singleTime, 1) + " 单/秒");
+        System.out.println("batch(" + batchSize + "): " + batchTime + " ms, " + total * 1000L / Math.max(batchTime, 1) + " 单/秒");
+
+        // 3. 最后一批只能按剩余库存插入, 库存扣完
+        assertEquals(before + total * 2 - shortage, voucherOrderService.query().eq("voucher_id", voucherId).count());
+        assertEquals(0, seckillVoucherService.getById(voucherId).getStock());
+    }
+
+    private VoucherOrder copyVoucherOrder(VoucherOrder source) {
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(redisIdWorker.nextId("order"));
+        voucherOrder.setUserId(source.getUserId());
+        voucherOrder.setVoucherId(source.getVoucherId());
+        return voucherOrder;
+    }
+
+    private List<VoucherOrder> mockVoucherOrders(long voucherId, int count) {
+        List<VoucherOrder> orders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            VoucherOrder voucherOrder = new VoucherOrder();
+            voucherOrder.setId(redisIdWorker.nextId("order"));
+            voucherOrder.setUserId(RandomUtil.randomLong(1_000_000L, Long.MAX_VALUE));
+            voucherOrder.setVoucherId(voucherId);
+            orders.add(voucherOrder);
+        }
+        return orders;
+    }
+
+    // 对比不同库存分桶数下秒杀脚本的吞吐, 请求数是库存的两倍, 成功数必须正好等于库存.
+    // 临时扩大 SeckillStockClient 的分区数, 测试券的各分桶都落在订单消费者不订阅的分区上, 结束后删除测试的 key
+    @Test
+    void testSeckillStockShards() throws InterruptedException {
+        int threads = 200;
+        int requests = 500;
+        int stock = threads * requests / 2;
+        int maxShards = 8;
+        int partitions = (int) ReflectionTestUtils.getField(seckillStockClient, "partitions");
+        int span = partitions + maxShards;
+        ReflectionTestUtils.setField(seckillStockClient, "partitions", span);
+        try {
+            for (int shards : new int[]{1, 2, 4, maxShards}) {
+                // voucherId % span == partitions, 分桶依次落在 partitions ~ span - 1 分区
+                long voucherId = 900000L / span * span + (long) span * shards + partitions;
+                SeckillVoucher voucher = new SeckillVoucher();
+                voucher.setVoucherId(voucherId);
+                voucher.setStock(stock);
+                voucher.setBeginTime(LocalDateTime.now().minusDays(1));
+                voucher.setEndTime(LocalDateTime.now().plusDays(1));
+                seckillStockClient.initStock(voucher, shards);
+                SeckillVoucherMeta meta = seckillStockClient.queryMeta(voucherId, id -> voucher);
+                CountDownLatch latch = new CountDownLatch(threads);
+                AtomicLong userIds = new AtomicLong(voucherId * 1_000_000L);
+                AtomicLong success = new AtomicLong();
+                Runnable task = () -> {
+                    for (int i = 0; i < requests; i++) {
+                        int r = seckillStockClient.seckill(meta, voucherId, userIds.incrementAndGet(), redisIdWorker.nextId("order"));
+                        if (r == SeckillStockClient.SUCCESS) {
+                            success.incrementAndGet();
+                        }
+                    }
+                    latch.countDown();
+                };
+                long begin = System.currentTimeMillis();
+                for (int i = 0; i < threads; i++) {
+                    ex.submit(task);
+                }
+                latch.await();
+                long time = System.currentTimeMillis() - begin;
+                System.out.println("shards = " + shards + ", success = " + success.get()
+                        + ", time = " + time + " ms, " + (long) threads * requests * 1000 / Math.max(time, 1) + " ops/s");
+
+                // 不超卖也不少卖, 每个成功的请求都写入了订单队列
+                long queued = 0;
+                for (int p = partitions; p < span; p++) {
+                    Long size = stringRedisTemplate.opsForStream().size(SeckillKeys.streamKey(p));
+                    queued += size == null ? 0 : size;
+                }
+                assertEquals(stock, success.get());
+                assertEquals(stock, queued);
+                deleteSeckillKeys(voucherId, shards, partitions, span);
+            }
+        } finally {
+            ReflectionTestUtils.setField(seckillStockClient, "partitions", partitions);
+        }
+    }
+
+    private void deleteSeckillKeys(long voucherId, int shards, int partitions, int span) {
+        List<String> keys = new ArrayList<>();
+        for (int p = partitions; p < span; p++) {
+            keys.add(SeckillKeys.streamKey(p));
+        }
+        if (shards == 1) {
+            int p = seckillStockClient.partitionOf(voucherId);
+            keys.add(SeckillKeys.stockKey(p, voucherId));
+            keys.add(SeckillKeys.orderKey(p, voucherId));
+        }
+        for (int shard = 0; shard < shards; shard++) {
+            int p = seckillStockClient.partitionOf(voucherId, shard);
+            keys.add(SeckillKeys.stockKey(p, voucherId, shard));
+            keys.add(SeckillKeys.orderKey(p, voucherId, shard));
+            keys.add(SeckillKeys.metaKey(p, voucherId));
+        }
+        stringRedisTemplate.delete(keys);
+    }
+
+    // 对比 json / binary 两种缓存编码的大小与编解码耗时
+    @Test
+    void testCacheCodec() {
+        Shop shop = shopService.getById(1L);
+        int n = 200_000;
+        for (CacheCodec codec : new CacheCodec[]{new JsonCacheCodec(), new BinaryCacheCodec()}) {
+            byte[] bytes = codec.encode(shop, System.currentTimeMillis(), 20);
+            long begin = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                codec.encode(shop, System.currentTimeMillis(), 20);
+            }
+            long encode = (System.nanoTime() - begin) / n;
+            begin = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                codec.readExpireAt(bytes);
+                codec.decode(bytes, Shop.class);
+            }
+            long decode = (System.nanoTime() - begin) / n;
+            System.out.println(codec.getClass().getSimpleName() + ": size = " + bytes.length + " bytes, encode = "
+                    + encode + " ns/op, decode = " + decode + " ns/op");
+        }
+    }
+
+    // 店铺布隆过滤器: 已有店铺不能被拦截, 统计不存在 id 的误判率
+    @Test
+    void testShopBloomFilter() throws InterruptedException {
+        // 等待启动时异步加载或构建
+        Thread.sleep(3000);
+        RedisBloomFilter bloomFilter = (RedisBloomFilter) ReflectionTestUtils.getField(shopService, "shopBloomFilter");
+        for (Shop shop : shopService.list()) {
+            if (!bloomFilter.mightContain(shop.getId())) {
+                throw new IllegalStateException("店铺被误拦截: " + shop.getId());
+            }
+        }
+        int count = 0;
+        for (long id = 100_000_000L; id < 100_100_000L; id++) {
+            if (bloomFilter.mightContain(id)) {
+                count++;
+            }
+        }
+        System.out.println("误判数: " + count + " / 100000");
+    }
+
+    // 重建调度: 同一个 key 只排队一次, 队列满后拒绝, 已逻辑过期的先于提前刷新的执行
+    @Test
+    void testCacheRebuildScheduler() throws InterruptedException {
+        int threads = (int) ReflectionTestUtils.getField(cacheRebuildScheduler, "threads");
+        int queueCapacity = (int) ReflectionTestUtils.getField(cacheRebuildScheduler, "queueCapacity");
+        String prefix = "test:rebuild:";
+        // 1. 占满所有重建线程, 之后提交的任务都在队列中
+        CountDownLatch started = new CountDownLatch(threads);
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < threads; i++) {
+            assertTrue(cacheRebuildScheduler.submit(prefix, prefix + "blocker:" + i, true, 0, () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // 2. 排队中的 key 重复提交被拒绝
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        String dup = prefix + "early:dup";
+        assertTrue(cacheRebuildScheduler.submit(prefix, dup, false, 0, () -> order.add(dup)));
+        assertFalse(cacheRebuildScheduler.submit(prefix, dup, false, 0, () -> order.add(dup)));
+        // 3. 先提交提前刷新的, 再提交已过期的, 最后超出容量的被拒绝
+        int accepted = 1;
+        int attempts = queueCapacity + 100;
+        for (int i = 1; i < attempts; i++) {
+            boolean expired = i >= queueCapacity / 2 && i < queueCapacity;
+            String key = prefix + (expired ? "expired:" : "early:") + i;
+            if (cacheRebuildScheduler.submit(prefix, key, expired, 0, () -> order.add(key))) {
+                accepted++;
+            }
+        }
+        assertTrue(accepted <= queueCapacity, "accepted = " + accepted);
+        assertTrue(accepted < attempts);
+        // 4. 放开重建线程, 等待排队的任务执行完
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (order.size() < accepted && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(accepted, order.size());
+        // 5. 已过期的先执行; 多个线程记录顺序时可能交错, 允许 threads 个位置的误差
+        int lastExpired = -1;
+        int firstEarly = order.size();
+        for (int i = 0; i < order.size(); i++) {
+            if (order.get(i).startsWith(prefix + "expired:")) {
+                lastExpired = i;
+            } else {
+                firstEarly = Math.min(firstEarly, i);
+            }
+        }
+        assertTrue(lastExpired < firstEarly + threads, "lastExpired = " + lastExpired + ", firstEarly = " + firstEarly);
+        // 6. 执行完后同一个 key 可以再次提交
+        assertTrue(cacheRebuildScheduler.submit(prefix, dup, false, 0, () -> { }));
+        System.out.println("accepted = " + accepted + ", attempts = " + attempts);
+        for (CacheStatsDTO stats : cacheMetrics.snapshot()) {
+            System.out.println(stats);
+        }
+    }
+
+    // 批量查询与逐个查询的耗时对比, 批量结果按 ids 顺序排列.
+    // 使用单独的前缀, 不覆盖 cache:shop: 中的逻辑过期缓存
+    @Test
+    void testMultiGet() {
+        String prefix = "cache:test:shop:";
+        List<Long> ids = new ArrayList<>();
+        for (long id = 14; id >= 1; id--) {
+            ids.add(id);
+        }
+        long begin = System.currentTimeMillis();
+        for (Long id : ids) {
+            cacheClient.queryWithPassThrough(prefix, id, Shop.class, shopService::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        }
+        System.out.println("逐个查询: " + (System.currentTimeMillis() - begin) + " ms");
+        begin = System.currentTimeMillis();
+        List<Shop> shops = cacheClient.multiGet(prefix, ids, Shop.class,
+                list -> shopService.listByIds(list).stream().collect(Collectors.toMap(Shop::getId, shop -> shop)),
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        System.out.println("批量查询: " + (System.currentTimeMillis() - begin) + " ms, ids = "
+                + shops.stream().map(Shop::getId).collect(Collectors.toList()));
+        stringRedisTemplate.delete(ids.stream().map(id -> prefix + id).collect(Collectors.toList()));
+    }
+
+    // 注解缓存: 第二次查询命中缓存, 泛型列表按元素类型解码
+    @Test
+    void testCachedAnnotation() {
+        for (int i = 0; i < 2; i++) {
+            long begin = System.currentTimeMillis();
+            List<Voucher> vouchers = voucherService.queryVoucherOfShop(1L);
+            List<ShopType> types = shopTypeService.queryTypeList();
+            System.out.println("vouchers = " + vouchers.size() + ", types = " + types.size()
+                    + ", first type = " + types.get(0).getName() + ", time = " + (System.currentTimeMillis() - begin) + " ms");
+        }
+    }
+
+    // 缓存统计: 查询存在与不存在的店铺后输出各前缀的命中情况
+    @Test
+    void testCacheStats() {
+        for (int i = 0; i < 100; i++) {
+            shopService.queryById(1L + i % 10);
+            shopService.queryById(100_000_000L + i);
+        }
+        for (CacheStatsDTO stats : cacheMetrics.snapshot()) {
+            System.out.println(stats);
+        }
+    }
+
     @Test
     void testSaveShop() throws InterruptedException {
         Shop shop = shopService.getById(1L);
@@ -70,6 +485,190 @@ class HmDianPingApplicationTests {
         cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + 1L, shop, 10L, TimeUnit.SECONDS);
     }
 
+    // 更新店铺后, 提交时删除缓存, 延迟双删后事件从发件箱移除
+    @Test
+    void testShopUpdateOutbox() throws InterruptedException {
+        Shop shop = shopService.getById(1L);
+        shopService.queryById(1L);
+        shopService.update(shop);
+        Thread.sleep(2500);
+        System.out.println("cache exists = " + stringRedisTemplate.hasKey(CACHE_SHOP_KEY + 1L)
+                + ", pending events = " + cacheOutboxService.count());
+    }
+
+    // 从头预热店铺缓存, 输出进度直到完成
+    @Test
+    void testShopCacheWarmUp() throws InterruptedException {
+        shopService.warmUpCache(true);
+        CacheWarmUpDTO progress;
+        do {
+            Thread.sleep(200);
+            progress = (CacheWarmUpDTO) shopService.queryWarmUpProgress().getData();
+            System.out.println(progress);
+        } while (!"DONE".equals(progress.getStatus()) && !"FAILED".equals(progress.getStatus()));
+    }
+
+    // 本地网格索引与 Redis GEOSEARCH 的附近查询耗时对比, 10 万与 100 万个随机店铺, 并校验两边的查询结果一致
+    @Test
+    void testGeoIndexBenchmark() {
+        for (int n : new int[]{100_000, 1_000_000}) {
+            // 1. 在约 50 公里见方的范围内随机生成店铺
+            GeoGridIndex index = new GeoGridIndex(0.01);
+            List<GeoGridIndex.GeoPoint> points = new ArrayList<>(n);
+            for (int i = 1; i <= n; i++) {
+                points.add(new GeoGridIndex.GeoPoint(i, 1, 120 + RandomUtil.randomDouble(0.5), 30 + RandomUtil.randomDouble(0.5)));
+            }
+            long begin = System.nanoTime();
+            index.putAll(points);
+            System.out.println("n = " + n + ", build = " + (System.nanoTime() - begin) / 1_000_000 + " ms");
+            // 2. 写入 Redis GEO
+            String key = SHOP_GEO_KEY + "bench";
+            stringRedisTemplate.delete(key);
+            for (List<GeoGridIndex.GeoPoint> batch : CollUtil.split(points, 5000)) {
+                stringRedisTemplate.opsForGeo().add(key, batch.stream()
+                        .map(p -> new RedisGeoCommands.GeoLocation<>(String.valueOf(p.getId()), new Point(p.getX(), p.getY())))
+                        .collect(Collectors.toList()));
+            }
+            // 3. 同样的查询点, 半径 5 公里取最近 50 个
+            int rounds = 1000;
+            double[][] queries = new double[rounds][];
+            for (int i = 0; i < rounds; i++) {
+                queries[i] = new double[]{120 + RandomUtil.randomDouble(0.5), 30 + RandomUtil.randomDouble(0.5)};
+            }
+            List<List<GeoGridIndex.GeoHit>> localResults = new ArrayList<>(rounds);
+            begin = System.nanoTime();
+            for (double[] q : queries) {
+                localResults.add(index.search(1, q[0], q[1], SystemConstants.SHOP_GEO_RADIUS, 50));
+            }
+            long local = System.nanoTime() - begin;
+            List<List<GeoResult<RedisGeoCommands.GeoLocation<String>>>> redisResults = new ArrayList<>(rounds);
+            begin = System.nanoTime();
+            for (double[] q : queries) {
+                redisResults.add(stringRedisTemplate.opsForGeo().search(key, GeoReference.fromCoordinate(q[0], q[1]),
+                        new Distance(SystemConstants.SHOP_GEO_RADIUS),
+                        RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().sortAscending().limit(50))
+                        .getContent());
+            }
+            long redis = System.nanoTime() - begin;
+            System.out.println("n = " + n + ", local = " + local / rounds / 1000 + " us/query, redis = "
+                    + redis / rounds / 1000 + " us/query");
+            // 4. 两边的结果一致. Redis 的坐标按 geohash 保存, 距离有不到 1 米的误差, 只允许在第 50 名
+            // (不足 50 个时为半径) 附近的店铺因并列或误差出现在一边
+            double tolerance = 1.0;
+            for (int i = 0; i < rounds; i++) {
+                List<GeoGridIndex.GeoHit> hits = localResults.get(i);
+                Map<Long, Double> redisDistances = redisResults.get(i).stream().collect(Collectors.toMap(
+                        r -> Long.valueOf(r.getContent().getName()), r -> r.getDistance().getValue()));
+                double cutoff = hits.size() == 50 ? hits.get(49).getDistance() : SystemConstants.SHOP_GEO_RADIUS;
+                for (GeoGridIndex.GeoHit hit : hits) {
+                    Double d = redisDistances.remove(hit.getId());
+                    if (d != null) {
+                        assertEquals(hit.getDistance(), d, tolerance);
+                    } else {
+                        assertEquals(cutoff, hit.getDistance(), tolerance, "only in local: " + hit.getId());
+                    }
+                }
+                for (Map.Entry<Long, Double> e : redisDistances.entrySet()) {
+                    assertEquals(cutoff, e.getValue(), tolerance, "only in redis: " + e.getKey());
+                }
+            }
+            stringRedisTemplate.delete(key);
+        }
+    }
+
+    // 按游标滚动查询附近店铺, 输出每页耗时, 页码增加时耗时不应增长
+    @Test
+    void testShopCursorPagination() {
+        String cursor = null;
+        for (int page = 1; page <= 20; page++) {
+            long begin = System.nanoTime();
+            CursorResult r = (CursorResult) shopService.queryShopByTypeCursor(1, 120.149993, 30.334229, cursor).getData();
+            System.out.println("page " + page + ", size = " + r.getList().size()
+                    + ", cost = " + (System.nanoTime() - begin) / 1000 + " us");
+            cursor = r.getCursor();
+            if (cursor == null) {
+                break;
+            }
+        }
+    }
+
+    // 修改店铺类型后 GEO 成员随之移动; 删除一个成员并加入一个多余的成员, 对比任务执行后与 tb_shop 一致
+    @Test
+    void testShopGeoReconcile() {
+        Shop shop = shopService.getById(1L);
+        Long typeId = shop.getTypeId();
+        String key = SHOP_GEO_KEY + typeId;
+        // 1. 修改类型, 提交后成员移动到新类型的集合
+        shopService.update(new Shop().setId(1L).setTypeId(typeId + 1));
+        assertNotNull(stringRedisTemplate.opsForGeo().position(SHOP_GEO_KEY + (typeId + 1), "1").get(0));
+        assertNull(stringRedisTemplate.opsForGeo().position(key, "1").get(0));
+        shopService.update(new Shop().setId(1L).setTypeId(typeId));
+        assertNull(stringRedisTemplate.opsForGeo().position(SHOP_GEO_KEY + (typeId + 1), "1").get(0));
+        // 2. 制造不一致: 删除一个成员, 加入一个数据库中不存在的成员
+        stringRedisTemplate.opsForZSet().remove(key, "1");
+        stringRedisTemplate.opsForGeo().add(key, new Point(shop.getX(), shop.getY()), "999999999");
+        // 3. 对比后集合与 tb_shop 中该类型有坐标的店铺一致
+        RedisGeoIndex shopRedisGeoIndex = (RedisGeoIndex) ReflectionTestUtils.getField(shopService, "shopRedisGeoIndex");
+        shopRedisGeoIndex.reconcile();
+        Set<String> expected = shopService.query().select("id")
+                .eq("type_id", typeId).isNotNull("x").isNotNull("y")
+                .list()
+                .stream().map(item -> item.getId().toString()).collect(Collectors.toSet());
+        assertEquals(expected, stringRedisTemplate.opsForZSet().range(key, 0, -1));
+    }
+
+    // 按名称关键字滚动搜索店铺, 输出每页结果与耗时
+    @Test
+    void testShopNameSearch() {
+        String cursor = null;
+        for (int page = 1; page <= 5; page++) {
+            long begin = System.nanoTime();
+            CursorResult r = (CursorResult) shopService.queryShopByNameCursor("茶", cursor).getData();
+            System.out.println("page " + page + ", cost = " + (System.nanoTime() - begin) / 1000 + " us");
+            r.getList().forEach(shop -> System.out.println("  " + ((Shop) shop).getName() + " " + ((Shop) shop).getScore()));
+            cursor = r.getCursor();
+            if (cursor == null) {
+                break;
+            }
+        }
+    }
+
+    // 带均价、评分、营业时间条件的附近查询耗时, 100 万个随机店铺, 按距离与按评分各 1000 次
+    @Test
+    void testFilteredNearbySearch() {
+        // 1. 在约 50 公里见方的范围内随机生成店铺与属性
+        int n = 1_000_000;
+        GeoGridIndex index = new GeoGridIndex(0.01);
+        List<GeoGridIndex.GeoPoint> points = new ArrayList<>(n);
+        for (int i = 1; i <= n; i++) {
+            int open = RandomUtil.randomInt(6, 12) * 60;
+            points.add(new GeoGridIndex.GeoPoint(i, 1, 120 + RandomUtil.randomDouble(0.5), 30 + RandomUtil.randomDouble(0.5),
+                    RandomUtil.randomInt(10, 500), RandomUtil.randomInt(10, 51), open, (open + 12 * 60) % (24 * 60)));
+        }
+        index.putAll(points);
+        // 2. 均价 50 ~ 200, 评分 4.0 以上, 当前营业; 半径 5 公里取前 50 个
+        GeoGridIndex.Filter filter = new GeoGridIndex.Filter(50, 200, 40, OpenHours.now());
+        int rounds = 1000;
+        for (boolean byScore : new boolean[]{false, true}) {
+            long begin = System.nanoTime();
+            int found = 0;
+            for (int i = 0; i < rounds; i++) {
+                found += index.search(1, 120 + RandomUtil.randomDouble(0.5), 30 + RandomUtil.randomDouble(0.5),
+                        SystemConstants.SHOP_GEO_RADIUS, 50, filter, byScore).size();
+            }
+            System.out.println("byScore = " + byScore + ", " + (System.nanoTime() - begin) / rounds / 1000
+                    + " us/query, avg hits = " + found / rounds);
+        }
+        // 3. 通过接口查询
+        ShopFilterDTO dto = new ShopFilterDTO();
+        dto.setMinScore(40);
+        dto.setOpenNow(true);
+        dto.setSortBy(ShopFilterDTO.SORT_BY_SCORE);
+        List<?> shops = (List<?>) shopService.queryShopByType(1, 1, 120.149993, 30.334229, dto).getData();
+        shops.forEach(shop -> System.out.println("  " + ((Shop) shop).getName() + " " + ((Shop) shop).getScore()
+                + " " + ((Shop) shop).getOpenHours() + " " + ((Shop) shop).getDistance()));
+    }
+
     // 导入店铺数据到 GEO
     @Test
     void loadShopData() {